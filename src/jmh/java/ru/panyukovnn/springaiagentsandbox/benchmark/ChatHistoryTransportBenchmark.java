@@ -0,0 +1,135 @@
+package ru.panyukovnn.springaiagentsandbox.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.panyukovnn.springaiagentsandbox.dto.common.CommonResponse;
+import ru.panyukovnn.springaiagentsandbox.dto.searchchathistory.SearchChatHistoryResponse;
+import ru.panyukovnn.springaiagentsandbox.history.ChatHistoryFormat;
+import ru.panyukovnn.springaiagentsandbox.history.ChatHistoryResponseReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Загрузка истории чата с локальной заглушки tg-chats-collector в каждом формате, со сжатием и без.
+ * Время операции включает передачу и потоковый разбор всех сообщений, переданные байты попадают в результаты JMH
+ * вспомогательными счётчиками {@link TransferCounters}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChatHistoryTransportBenchmark {
+
+    @Param({"100000"})
+    public int messageCount;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public ChatHistoryFormat format;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+        .findAndAddModules()
+        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .build();
+    private final ChatHistoryResponseReader reader = new ChatHistoryResponseReader(objectMapper);
+    private HttpServer stubCollector;
+    private URI historyUri;
+    private int uncompressedLength;
+
+    @Setup
+    public void setUp() throws IOException {
+        CommonResponse<SearchChatHistoryResponse> response = CommonResponse.<SearchChatHistoryResponse>builder()
+            .body(SearchChatHistoryResponse.builder()
+                .messages(SyntheticChatHistory.generate(messageCount, 42))
+                .build())
+            .build();
+
+        byte[] encoded = format.mapper(objectMapper).writeValueAsBytes(response);
+        byte[] body = gzip ? gzip(encoded) : encoded;
+        uncompressedLength = encoded.length;
+
+        stubCollector = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubCollector.createContext("/search-chat-history", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", format.getMediaType().toString());
+            if (gzip) {
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stubCollector.start();
+
+        historyUri = URI.create("http://127.0.0.1:%d/search-chat-history".formatted(stubCollector.getAddress().getPort()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        stubCollector.stop(0);
+    }
+
+    @Benchmark
+    public long loadHistory(TransferCounters counters) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) historyUri.toURL().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Accept", format.acceptHeader());
+        connection.setRequestProperty("Accept-Encoding", gzip ? "gzip" : "identity");
+        connection.getOutputStream().write("{}".getBytes());
+
+        counters.loads++;
+        counters.transferredBytes += connection.getContentLengthLong();
+        counters.uncompressedBytes += uncompressedLength;
+
+        try (Stream<?> messages = reader.read(connection.getInputStream(), connection.getContentType())) {
+            return messages.count();
+        }
+    }
+
+    /**
+     * Суммы за итерацию: количество загрузок, байты ответа по заголовку Content-Length и байты ответа до сжатия.
+     * Размер одного ответа - сумма байт, делённая на количество загрузок.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class TransferCounters {
+
+        public long loads;
+        public long transferredBytes;
+        public long uncompressedBytes;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4);
+
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(data);
+        }
+
+        return compressed.toByteArray();
+    }
+}
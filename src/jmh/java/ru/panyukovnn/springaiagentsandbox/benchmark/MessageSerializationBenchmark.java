@@ -0,0 +1,57 @@
+package ru.panyukovnn.springaiagentsandbox.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализация и десериализация истории чата в json, так её передаёт tg-chats-collector
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageSerializationBenchmark {
+
+    private static final TypeReference<List<TgMessageDto>> MESSAGES_TYPE = new TypeReference<>() {
+    };
+
+    @Param({"10000", "100000"})
+    public int messageCount;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+        .findAndAddModules()
+        .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .build();
+    private List<TgMessageDto> messages;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        messages = SyntheticChatHistory.generate(messageCount, 42);
+        json = objectMapper.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public List<TgMessageDto> deserialize() throws IOException {
+        return objectMapper.readValue(json, MESSAGES_TYPE);
+    }
+}
@@ -0,0 +1,89 @@
+package ru.panyukovnn.springaiagentsandbox.benchmark;
+
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+import ru.panyukovnn.springaiagentsandbox.transcript.TgTranscriptWriter;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Генерирует детерминированную синтетическую переписку для замеров без обращения к tg-chats-collector.
+ * Тексты собираются из словаря русских и английских слов, часть сообщений - ответы на предыдущие.
+ */
+public final class SyntheticChatHistory {
+
+    private static final String[] WORDS = {
+        "релиз", "версия", "сервер", "база", "данных", "миграция", "ошибка", "лог", "запрос", "ответ",
+        "сегодня", "завтра", "вчера", "встреча", "созвон", "задача", "тикет", "ревью", "пулреквест", "ветка",
+        "spring", "java", "gradle", "docker", "kubernetes", "deepseek", "ollama", "embedding", "vector", "token",
+        "кто", "когда", "где", "почему", "как", "нужно", "можно", "сделать", "проверить", "починить",
+        "https://example.com/docs", "@channel", "10:00", "2024", "500", "ok", "спасибо", "да", "нет", "+1"
+    };
+    private static final int SENDERS = 50;
+    private static final int MAX_WORDS_PER_MESSAGE = 60;
+    private static final double REPLY_PROBABILITY = 0.2;
+
+    private SyntheticChatHistory() {
+    }
+
+    /**
+     * @param messageCount количество сообщений
+     * @param seed         начальное значение генератора, одинаковое значение даёт одинаковую переписку
+     * @return сообщения в хронологическом порядке
+     */
+    public static List<TgMessageDto> generate(int messageCount, long seed) {
+        Random random = new Random(seed);
+        List<TgMessageDto> messages = new ArrayList<>(messageCount);
+        LocalDateTime dateTime = LocalDateTime.of(2024, 1, 1, 9, 0);
+
+        for (int i = 0; i < messageCount; i++) {
+            dateTime = dateTime.plusSeconds(30 + random.nextInt(600));
+
+            TgMessageDto.TgMessageDtoBuilder message = TgMessageDto.builder()
+                .messageId(1000L + i)
+                .senderId(100_000L + random.nextInt(SENDERS))
+                .dateTime(dateTime)
+                .text(randomText(random));
+
+            if (i > 0 && random.nextDouble() < REPLY_PROBABILITY) {
+                TgMessageDto repliedMessage = messages.get(Math.max(0, i - 1 - random.nextInt(Math.min(i, 100))));
+
+                message
+                    .replyToMessageId(repliedMessage.getMessageId())
+                    .replyToText(repliedMessage.getText());
+            }
+
+            messages.add(message.build());
+        }
+
+        return messages;
+    }
+
+    /**
+     * @param messages сообщения в хронологическом порядке
+     * @return транскрипт переписки в формате {@link TgTranscriptWriter}, как он передаётся в LLM
+     */
+    public static String transcript(List<TgMessageDto> messages) {
+        StringBuilder transcript = new StringBuilder();
+        TgTranscriptWriter writer = new TgTranscriptWriter(transcript);
+        messages.forEach(writer::append);
+
+        return transcript.toString();
+    }
+
+    private static String randomText(Random random) {
+        int wordCount = 1 + random.nextInt(MAX_WORDS_PER_MESSAGE);
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < wordCount; i++) {
+            if (i > 0) {
+                text.append(random.nextInt(12) == 0 ? ".\n" : " ");
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        return text.toString();
+    }
+}
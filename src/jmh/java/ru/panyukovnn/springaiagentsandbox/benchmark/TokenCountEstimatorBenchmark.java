@@ -0,0 +1,46 @@
+package ru.panyukovnn.springaiagentsandbox.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Оценка количества токенов в промтах размером в несколько мегабайт
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TokenCountEstimatorBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int promptMegabytes;
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+    private String prompt;
+
+    @Setup
+    public void setUp() {
+        int targetLength = promptMegabytes * 1024 * 1024;
+        StringBuilder text = new StringBuilder(targetLength + 1024);
+
+        for (long seed = 0; text.length() < targetLength; seed++) {
+            text.append(SyntheticChatHistory.transcript(SyntheticChatHistory.generate(1000, seed)));
+        }
+
+        prompt = text.substring(0, targetLength);
+    }
+
+    @Benchmark
+    public int estimate() {
+        return tokenCountEstimator.estimate(prompt);
+    }
+}
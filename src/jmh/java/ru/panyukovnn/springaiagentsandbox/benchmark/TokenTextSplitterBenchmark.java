@@ -0,0 +1,61 @@
+package ru.panyukovnn.springaiagentsandbox.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+import ru.panyukovnn.springaiagentsandbox.transcript.MessageTokenSplitter;
+import ru.panyukovnn.springaiagentsandbox.transcript.TranscriptChunk;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбиение переписки на чанки с настройками обоих workflow: 190000 токенов для map-reduce и 500 токенов для RAG.
+ * split - TokenTextSplitter по готовому транскрипту, splitByMessages - {@link MessageTokenSplitter} по границам сообщений,
+ * которым переписка разбивается в приложении
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TokenTextSplitterBenchmark {
+
+    @Param({"10000", "100000"})
+    public int messageCount;
+
+    @Param({"190000", "500"})
+    public int chunkSize;
+
+    private List<TgMessageDto> messages;
+    private Document transcript;
+    private TokenTextSplitter splitter;
+    private MessageTokenSplitter messageTokenSplitter;
+
+    @Setup
+    public void setUp() {
+        messages = SyntheticChatHistory.generate(messageCount, 42);
+        transcript = new Document(SyntheticChatHistory.transcript(messages));
+
+        splitter = chunkSize == 500
+            ? new TokenTextSplitter(500, 100, 0, 512, true)
+            : new TokenTextSplitter(chunkSize, 100, 0, 50, true);
+        messageTokenSplitter = new MessageTokenSplitter();
+    }
+
+    @Benchmark
+    public List<Document> split() {
+        return splitter.apply(List.of(transcript));
+    }
+
+    @Benchmark
+    public List<TranscriptChunk> splitByMessages() {
+        return messageTokenSplitter.split(messages, chunkSize);
+    }
+}
@@ -0,0 +1,84 @@
+package ru.panyukovnn.springaiagentsandbox.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import ru.panyukovnn.springaiagentsandbox.rag.HnswVectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск top-20 чанков в векторном хранилище на синтетических эмбеддингах:
+ * полный перебор SimpleVectorStore против графа HNSW с настройками по умолчанию
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VectorStoreSearchBenchmark {
+
+    private static final int DIMENSIONS = 384;
+    private static final int CLUSTERS = 256;
+    private static final int TOP_K = 20;
+    private static final int QUERIES = 64;
+
+    @Param({"10000", "100000", "1000000"})
+    public int chunkCount;
+
+    @Param({"simple", "hnsw"})
+    public String vectorStoreType;
+
+    private VectorStore vectorStore;
+    private List<SearchRequest> searchRequests;
+    private int nextQuery;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EmbeddingModel embeddingModel = new SyntheticEmbeddingModel(DIMENSIONS, CLUSTERS);
+
+        vectorStore = "hnsw".equals(vectorStoreType)
+            ? new HnswVectorStore(embeddingModel, 16, 200, 100)
+            : SimpleVectorStore.builder(embeddingModel).build();
+
+        List<Document> batch = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            batch.add(new Document("chunk-" + i, "синтетический чанк переписки " + i, Map.of()));
+
+            if (batch.size() == 10_000) {
+                vectorStore.add(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            vectorStore.add(batch);
+        }
+
+        searchRequests = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            searchRequests.add(SearchRequest.builder()
+                .query("вопрос пользователя " + i)
+                .topK(TOP_K)
+                .build());
+        }
+    }
+
+    @Benchmark
+    public List<Document> similaritySearch() {
+        SearchRequest searchRequest = searchRequests.get(nextQuery++ % QUERIES);
+
+        return vectorStore.similaritySearch(searchRequest);
+    }
+}
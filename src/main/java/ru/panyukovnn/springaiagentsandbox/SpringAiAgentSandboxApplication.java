@@ -2,12 +2,14 @@ package ru.panyukovnn.springaiagentsandbox;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.shell.command.annotation.CommandScan;
 
 @CommandScan
 @EnableFeignClients
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class SpringAiAgentSandboxApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,19 @@
+package ru.panyukovnn.springaiagentsandbox.advisor;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CachedLlmResponse {
+
+    private String model;
+    private String text;
+    private Instant createdAt;
+}
@@ -0,0 +1,150 @@
+package ru.panyukovnn.springaiagentsandbox.advisor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Дисковый кэш ответов LLM: один json файл на ключ.
+ * Записи старше ttl считаются устаревшими, при превышении max-size удаляются давно не читавшиеся записи.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LlmResponseCache {
+
+    private static final String FILE_SUFFIX = ".json";
+
+    private final ObjectMapper objectMapper;
+    private final AtomicLong totalSizeBytes = new AtomicLong();
+
+    @Value("${spring-ai-agent-sandbox.llm-cache.dir}")
+    private Path cacheDir;
+    @Value("${spring-ai-agent-sandbox.llm-cache.ttl}")
+    private Duration ttl;
+    @Value("${spring-ai-agent-sandbox.llm-cache.max-size}")
+    private DataSize maxSize;
+
+    @PostConstruct
+    @SneakyThrows
+    public void init() {
+        Files.createDirectories(cacheDir);
+
+        totalSizeBytes.set(listEntries().stream()
+            .mapToLong(LlmResponseCache::sizeOf)
+            .sum());
+    }
+
+    public Optional<CachedLlmResponse> get(String key) {
+        Path file = cacheDir.resolve(key + FILE_SUFFIX);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            CachedLlmResponse cachedResponse = objectMapper.readValue(file.toFile(), CachedLlmResponse.class);
+
+            if (cachedResponse.getCreatedAt().plus(ttl).isBefore(Instant.now())) {
+                remove(file);
+
+                return Optional.empty();
+            }
+
+            // время изменения файла используется как время последнего чтения для вытеснения
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+
+            return Optional.of(cachedResponse);
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать запись кэша ответов LLM: {}", file, e);
+
+            return Optional.empty();
+        }
+    }
+
+    public void put(String key, CachedLlmResponse cachedResponse) {
+        Path file = cacheDir.resolve(key + FILE_SUFFIX);
+
+        try {
+            long previousSize = Files.exists(file) ? Files.size(file) : 0;
+            objectMapper.writeValue(file.toFile(), cachedResponse);
+            totalSizeBytes.addAndGet(Files.size(file) - previousSize);
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить запись кэша ответов LLM: {}", file, e);
+
+            return;
+        }
+
+        if (totalSizeBytes.get() > maxSize.toBytes()) {
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        List<Path> entries = listEntries().stream()
+            .sorted(Comparator.comparing(LlmResponseCache::lastModified))
+            .toList();
+
+        long targetSize = maxSize.toBytes() * 9 / 10;
+        for (Path entry : entries) {
+            if (totalSizeBytes.get() <= targetSize) {
+                break;
+            }
+
+            remove(entry);
+        }
+    }
+
+    private void remove(Path file) {
+        long size = sizeOf(file);
+
+        try {
+            if (Files.deleteIfExists(file)) {
+                totalSizeBytes.addAndGet(-size);
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось удалить запись кэша ответов LLM: {}", file, e);
+        }
+    }
+
+    @SneakyThrows
+    private List<Path> listEntries() {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            return files
+                .filter(path -> path.getFileName().toString().endsWith(FILE_SUFFIX))
+                .toList();
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ru.panyukovnn.springaiagentsandbox.advisor;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэширует ответы LLM для детерминированных вызовов с нулевой температурой.
+ * Ключ кэша - sha-256 от сообщений промта и параметров генерации.
+ * Вызовы с инструментами и ответы с вызовами инструментов не кэшируются.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LlmResponseCacheAdvisor implements CallAdvisor {
+
+    public static final String CACHED_METADATA_KEY = "cached";
+
+    private final LlmResponseCache llmResponseCache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Value("${spring.ai.openai.chat.options.model}")
+    private String defaultModel;
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        Prompt prompt = chatClientRequest.prompt();
+
+        if (!isCacheable(prompt.getOptions())) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+
+        String model = resolveModel(prompt.getOptions());
+        String key = buildKey(prompt, model);
+
+        Optional<CachedLlmResponse> cachedResponse = llmResponseCache.get(key);
+        if (cachedResponse.isPresent()) {
+            hits.incrementAndGet();
+            log.info("Ответ LLM взят из кэша: {}", key);
+
+            return new ChatClientResponse(toChatResponse(cachedResponse.get()), chatClientRequest.context());
+        }
+
+        misses.incrementAndGet();
+
+        ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+        ChatResponse chatResponse = chatClientResponse.chatResponse();
+
+        if (chatResponse != null && chatResponse.getResult() != null && !chatResponse.hasToolCalls()
+            && chatResponse.getResult().getOutput().getText() != null) {
+            llmResponseCache.put(key, CachedLlmResponse.builder()
+                .model(model)
+                .text(chatResponse.getResult().getOutput().getText())
+                .createdAt(Instant.now())
+                .build());
+        }
+
+        return chatClientResponse;
+    }
+
+    @Override
+    public String getName() {
+        return LlmResponseCacheAdvisor.class.getSimpleName();
+    }
+
+    /**
+     * Выполняется после advisor'ов памяти, чтобы ключ учитывал историю диалога
+     */
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE - 1000;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private boolean isCacheable(ChatOptions options) {
+        if (options == null || options.getTemperature() == null || options.getTemperature() != 0.0) {
+            return false;
+        }
+
+        if (options instanceof ToolCallingChatOptions toolCallingChatOptions) {
+            return toolCallingChatOptions.getToolCallbacks().isEmpty() && toolCallingChatOptions.getToolNames().isEmpty();
+        }
+
+        return true;
+    }
+
+    private String resolveModel(ChatOptions options) {
+        return options.getModel() != null
+            ? options.getModel()
+            : defaultModel;
+    }
+
+    @SneakyThrows
+    private static String buildKey(Prompt prompt, String model) {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        for (Message message : prompt.getInstructions()) {
+            update(digest, message.getMessageType().name());
+            update(digest, message.getText());
+        }
+
+        ChatOptions options = prompt.getOptions();
+        update(digest, model);
+        update(digest, String.valueOf(options.getTemperature()));
+        update(digest, String.valueOf(options.getMaxTokens()));
+        update(digest, String.valueOf(options.getTopP()));
+        update(digest, String.valueOf(options.getTopK()));
+        update(digest, String.valueOf(options.getFrequencyPenalty()));
+        update(digest, String.valueOf(options.getPresencePenalty()));
+        update(digest, String.valueOf(options.getStopSequences()));
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static ChatResponse toChatResponse(CachedLlmResponse cachedResponse) {
+        return new ChatResponse(
+            List.of(new Generation(new AssistantMessage(cachedResponse.getText()))),
+            ChatResponseMetadata.builder()
+                .model(cachedResponse.getModel())
+                .keyValue(CACHED_METADATA_KEY, true)
+                .build());
+    }
+}
@@ -0,0 +1,30 @@
+package ru.panyukovnn.springaiagentsandbox.batch;
+
+import java.time.LocalDate;
+
+/**
+ * Задание пакетного запуска, одна строка файла заданий
+ *
+ * @param id       идентификатор задания, если не указан - номер строки в файле
+ * @param chatId   идентификатор чата
+ * @param topicId  идентификатор топика
+ * @param dateFrom дата, начиная с которой анализируется переписка
+ * @param question вопрос к переписке
+ * @param strategy способ поиска ответа, по умолчанию mapReduce
+ */
+public record BatchJob(String id, Long chatId, Long topicId, LocalDate dateFrom, String question, BatchStrategy strategy) {
+
+    BatchJob withDefaults(int lineNumber) {
+        return new BatchJob(
+            id == null ? String.valueOf(lineNumber) : id,
+            chatId,
+            topicId,
+            dateFrom,
+            question,
+            strategy == null ? BatchStrategy.MAP_REDUCE : strategy);
+    }
+
+    String chatKey() {
+        return topicId == null ? String.valueOf(chatId) : chatId + "_" + topicId;
+    }
+}
@@ -0,0 +1,32 @@
+package ru.panyukovnn.springaiagentsandbox.batch;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Результат задания пакетного запуска, одна строка файла результатов
+ *
+ * @param id        идентификатор задания
+ * @param chatId    идентификатор чата
+ * @param topicId   идентификатор топика
+ * @param strategy  способ поиска ответа
+ * @param question  вопрос к переписке
+ * @param answer    ответ, null - если ответ не найден или задание завершилось ошибкой
+ * @param error     текст ошибки
+ * @param latencyMs длительность задания, включая ожидание синхронизации истории чата
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchJobResult(String id,
+                             Long chatId,
+                             Long topicId,
+                             BatchStrategy strategy,
+                             String question,
+                             String answer,
+                             String error,
+                             long latencyMs) {
+
+    @JsonIgnore
+    public boolean isSucceeded() {
+        return error == null;
+    }
+}
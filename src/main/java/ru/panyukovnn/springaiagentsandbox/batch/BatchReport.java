@@ -0,0 +1,72 @@
+package ru.panyukovnn.springaiagentsandbox.batch;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Итоги пакетного запуска
+ *
+ * @param jobs            количество выполненных заданий
+ * @param skipped         задания, пропущенные как уже успешно выполненные в предыдущем запуске
+ * @param failed          задания, завершившиеся ошибкой
+ * @param elapsed         общая длительность запуска
+ * @param sortedLatencyMs длительности заданий по возрастанию
+ * @param tokens          расход токенов за время запуска по сценариям вызовов LLM
+ */
+public record BatchReport(int jobs,
+                          int skipped,
+                          int failed,
+                          Duration elapsed,
+                          long[] sortedLatencyMs,
+                          Map<String, TokenTotals> tokens) {
+
+    /**
+     * @return текстовый отчёт для вывода в терминал
+     */
+    public String render() {
+        double elapsedMinutes = Math.max(elapsed.toMillis(), 1) / 60_000.0;
+
+        StringBuilder report = new StringBuilder()
+            .append("Заданий: %s, успешно: %s, с ошибкой: %s, пропущено: %s%n".formatted(jobs, jobs - failed, failed, skipped))
+            .append("Длительность: %s с, пропускная способность: %.1f заданий/мин%n".formatted(elapsed.toSeconds(), jobs / elapsedMinutes))
+            .append("Длительность задания: p50 %s, p95 %s, p99 %s, max %s мс%n".formatted(
+                percentile(0.5), percentile(0.95), percentile(0.99), sortedLatencyMs.length == 0 ? 0 : sortedLatencyMs[sortedLatencyMs.length - 1]));
+
+        long promptTokens = 0;
+        long completionTokens = 0;
+        long cacheHitTokens = 0;
+        for (Map.Entry<String, TokenTotals> scenario : tokens.entrySet()) {
+            TokenTotals totals = scenario.getValue();
+            promptTokens += totals.promptTokens();
+            completionTokens += totals.completionTokens();
+            cacheHitTokens += totals.cacheHitTokens();
+
+            report.append("  %s: вызовов %s, prompt %s, completion %s, cache hit %s%n".formatted(
+                scenario.getKey(), totals.calls(), totals.promptTokens(), totals.completionTokens(), totals.cacheHitTokens()));
+        }
+
+        report.append("Токены: prompt %s, completion %s, cache hit %s, в среднем на задание %s%n".formatted(
+            promptTokens, completionTokens, cacheHitTokens, jobs == 0 ? 0 : (promptTokens + completionTokens) / jobs));
+
+        return report.toString();
+    }
+
+    /**
+     * Перцентиль по ближайшему рангу
+     */
+    private long percentile(double percentile) {
+        if (sortedLatencyMs.length == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(percentile * sortedLatencyMs.length);
+
+        return sortedLatencyMs[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Расход токенов сценария за время запуска
+     */
+    public record TokenTotals(long calls, long promptTokens, long completionTokens, long cacheHitTokens) {
+    }
+}
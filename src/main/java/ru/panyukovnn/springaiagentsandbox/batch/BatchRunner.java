@@ -0,0 +1,265 @@
+package ru.panyukovnn.springaiagentsandbox.batch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+import ru.panyukovnn.springaiagentsandbox.history.LocalChatHistoryService;
+import ru.panyukovnn.springaiagentsandbox.usage.LlmUsageRecorder;
+import ru.panyukovnn.springaiagentsandbox.workflows.MapReduceAnswerWorkflow;
+import ru.panyukovnn.springaiagentsandbox.workflows.RagAnswerWorkflow;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Выполняет пакет вопросов к перепискам без участия пользователя.
+ * Задания читаются из файла jsonl, выполняются на виртуальных потоках не больше parallelism одновременно.
+ * История каждого чата синхронизируется с tg-chats-collector один раз за запуск, с самой ранней даты среди его заданий,
+ * после чего задания читают её из локального хранилища; векторный индекс чата также общий для его заданий.
+ * Результат каждого задания дописывается в файл результатов сразу после завершения, поэтому прерванный запуск
+ * можно продолжить: задания, уже успешно выполненные в файле результатов, пропускаются.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BatchRunner {
+
+    private static final String NO_ANSWER = "В представленной переписке нет данных для ответа на ваш вопрос";
+
+    private final ObjectMapper objectMapper;
+    private final LlmUsageRecorder llmUsageRecorder;
+    private final RagAnswerWorkflow ragAnswerWorkflow;
+    private final LocalChatHistoryService localChatHistoryService;
+    private final MapReduceAnswerWorkflow mapReduceAnswerWorkflow;
+
+    /**
+     * Выполняет задания из файла
+     *
+     * @param jobsFile    файл заданий, по одному json объекту {@link BatchJob} в строке
+     * @param resultsFile файл результатов, по одному json объекту {@link BatchJobResult} в строке, дописывается
+     * @param parallelism сколько заданий выполняется одновременно
+     * @return итоги запуска
+     */
+    @SneakyThrows
+    public BatchReport run(Path jobsFile, Path resultsFile, int parallelism) {
+        List<BatchJob> allJobs = readJobs(jobsFile);
+        Set<String> completedJobIds = readCompletedJobIds(resultsFile);
+        List<BatchJob> jobs = allJobs.stream()
+            .filter(job -> !completedJobIds.contains(job.id()))
+            .toList();
+
+        log.info("Пакетный запуск: заданий {}, уже выполнено ранее {}, одновременно {}", allJobs.size(), allJobs.size() - jobs.size(), parallelism);
+
+        Map<String, LocalDate> earliestDateByChat = new HashMap<>();
+        jobs.forEach(job -> earliestDateByChat.merge(job.chatKey(), job.dateFrom(), (first, second) -> first.isBefore(second) ? first : second));
+
+        Map<String, CompletableFuture<Void>> chatSyncs = new ConcurrentHashMap<>();
+        Map<String, BatchReport.TokenTotals> tokensBefore = snapshotTokens();
+        Semaphore runningJobs = new Semaphore(parallelism);
+        List<CompletableFuture<BatchJobResult>> results = new ArrayList<>(jobs.size());
+        long startNanos = System.nanoTime();
+
+        try (BufferedWriter resultsWriter = Files.newBufferedWriter(resultsFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             ExecutorService virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            for (BatchJob job : jobs) {
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    runningJobs.acquireUninterruptibly();
+                    try {
+                        BatchJobResult result = runJob(job, chatSyncs, earliestDateByChat, virtualThreadExecutor);
+                        writeResult(resultsWriter, result);
+
+                        return result;
+                    } finally {
+                        runningJobs.release();
+                    }
+                }, virtualThreadExecutor));
+            }
+
+            CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+        }
+
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+        List<BatchJobResult> jobResults = results.stream()
+            .map(CompletableFuture::join)
+            .toList();
+
+        BatchReport report = new BatchReport(
+            jobResults.size(),
+            allJobs.size() - jobs.size(),
+            (int) jobResults.stream().filter(result -> !result.isSucceeded()).count(),
+            elapsed,
+            jobResults.stream().mapToLong(BatchJobResult::latencyMs).sorted().toArray(),
+            tokensSince(tokensBefore));
+
+        log.info("Пакетный запуск завершён:\n{}", report.render());
+
+        return report;
+    }
+
+    private BatchJobResult runJob(BatchJob job,
+                                  Map<String, CompletableFuture<Void>> chatSyncs,
+                                  Map<String, LocalDate> earliestDateByChat,
+                                  ExecutorService virtualThreadExecutor) {
+        long startNanos = System.nanoTime();
+
+        try {
+            LocalDate syncFrom = earliestDateByChat.get(job.chatKey());
+            CompletableFuture<Void> chatSync = chatSyncs.computeIfAbsent(job.chatKey(), key -> CompletableFuture.runAsync(
+                () -> localChatHistoryService.sync(job.chatId(), job.topicId(), LocalDateTime.of(syncFrom, LocalTime.MIN)),
+                virtualThreadExecutor));
+            awaitSync(chatSync);
+
+            Optional<String> answer;
+            try (Stream<TgMessageDto> messages = localChatHistoryService.read(job.chatId(), job.topicId(), LocalDateTime.of(job.dateFrom(), LocalTime.MIN))) {
+                answer = switch (job.strategy()) {
+                    case MAP_REDUCE -> mapReduceAnswerWorkflow.mapReduce(job.question(), messages);
+                    case LOOKUP -> mapReduceAnswerWorkflow.mapReduceWithEarlyExit(job.question(), messages);
+                    case RAG -> ragAnswerWorkflow.answerWithRag(job.chatId(), job.topicId(), job.dateFrom(), job.question(), messages.toList());
+                };
+            }
+
+            return result(job, answer.orElse(NO_ANSWER), null, startNanos);
+        } catch (RuntimeException e) {
+            log.error("Задание {} завершилось ошибкой", job.id(), e);
+
+            return result(job, null, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), startNanos);
+        }
+    }
+
+    private static BatchJobResult result(BatchJob job, String answer, String error, long startNanos) {
+        return new BatchJobResult(job.id(), job.chatId(), job.topicId(), job.strategy(), job.question(), answer, error,
+            Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+    }
+
+    private static void awaitSync(CompletableFuture<Void> chatSync) {
+        try {
+            chatSync.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    private void writeResult(BufferedWriter resultsWriter, BatchJobResult result) {
+        try {
+            String line = objectMapper.writeValueAsString(result);
+
+            synchronized (resultsWriter) {
+                resultsWriter.write(line);
+                resultsWriter.newLine();
+                resultsWriter.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<BatchJob> readJobs(Path jobsFile) throws IOException {
+        List<BatchJob> jobs = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(jobsFile, StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                BatchJob job = objectMapper.readValue(line, BatchJob.class).withDefaults(lineNumber);
+                if (job.chatId() == null || job.dateFrom() == null || job.question() == null) {
+                    throw new IllegalStateException("В задании на строке %s не указаны chatId, dateFrom или question".formatted(lineNumber));
+                }
+
+                jobs.add(job);
+            }
+        }
+
+        return jobs;
+    }
+
+    private Set<String> readCompletedJobIds(Path resultsFile) throws IOException {
+        Set<String> completedJobIds = new HashSet<>();
+        if (!Files.exists(resultsFile)) {
+            return completedJobIds;
+        }
+
+        try (Stream<String> lines = Files.lines(resultsFile, StandardCharsets.UTF_8)) {
+            lines.filter(line -> !line.isBlank())
+                .forEach(line -> {
+                    try {
+                        JsonNode result = objectMapper.readTree(line);
+                        if (!result.hasNonNull("error")) {
+                            completedJobIds.add(result.path("id").asText());
+                        }
+                    } catch (IOException e) {
+                        log.warn("Пропущена некорректная строка файла результатов: {}", line);
+                    }
+                });
+        }
+
+        return completedJobIds;
+    }
+
+    private Map<String, BatchReport.TokenTotals> snapshotTokens() {
+        Map<String, BatchReport.TokenTotals> snapshot = new TreeMap<>();
+
+        llmUsageRecorder.getScenarios().forEach((scenario, usage) -> snapshot.put(scenario, new BatchReport.TokenTotals(
+            usage.getCalls(), usage.getPromptTokens(), usage.getCompletionTokens(), usage.getCacheHitTokens())));
+
+        return snapshot;
+    }
+
+    private Map<String, BatchReport.TokenTotals> tokensSince(Map<String, BatchReport.TokenTotals> before) {
+        Map<String, BatchReport.TokenTotals> since = new TreeMap<>();
+        BatchReport.TokenTotals zero = new BatchReport.TokenTotals(0, 0, 0, 0);
+
+        snapshotTokens().forEach((scenario, after) -> {
+            BatchReport.TokenTotals previous = before.getOrDefault(scenario, zero);
+
+            if (after.calls() > previous.calls()) {
+                since.put(scenario, new BatchReport.TokenTotals(
+                    after.calls() - previous.calls(),
+                    after.promptTokens() - previous.promptTokens(),
+                    after.completionTokens() - previous.completionTokens(),
+                    after.cacheHitTokens() - previous.cacheHitTokens()));
+            }
+        });
+
+        return since;
+    }
+}
@@ -0,0 +1,25 @@
+package ru.panyukovnn.springaiagentsandbox.batch;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Способ поиска ответа на вопрос пакетного задания
+ */
+public enum BatchStrategy {
+
+    /**
+     * Map-reduce по всей переписке за период
+     */
+    @JsonProperty("mapReduce")
+    MAP_REDUCE,
+    /**
+     * Map-reduce с досрочным завершением для точечных вопросов
+     */
+    @JsonProperty("lookup")
+    LOOKUP,
+    /**
+     * Поиск по векторному индексу чата
+     */
+    @JsonProperty("rag")
+    RAG
+}
@@ -0,0 +1,69 @@
+package ru.panyukovnn.springaiagentsandbox.benchmark;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Детерминированная embedding модель для замеров без обращения к Ollama.
+ * Каждый текст относится к одному из кластеров по своему хэшу, вектор - центр кластера плюс шум.
+ */
+public class SyntheticEmbeddingModel implements EmbeddingModel {
+
+    private static final float NOISE = 0.7f;
+
+    private final int dimensions;
+    private final float[][] centroids;
+
+    public SyntheticEmbeddingModel(int dimensions, int clusters) {
+        this.dimensions = dimensions;
+        this.centroids = new float[clusters][dimensions];
+
+        Random random = new Random(clusters);
+        for (float[] centroid : centroids) {
+            for (int i = 0; i < dimensions; i++) {
+                centroid[i] = (float) random.nextGaussian();
+            }
+        }
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>(request.getInstructions().size());
+
+        for (int i = 0; i < request.getInstructions().size(); i++) {
+            embeddings.add(new Embedding(embedText(request.getInstructions().get(i)), i));
+        }
+
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embedText(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private float[] embedText(String text) {
+        int hash = text.hashCode();
+        float[] centroid = centroids[Math.floorMod(hash, centroids.length)];
+        Random random = new Random(hash);
+
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = centroid[i] + (float) random.nextGaussian() * NOISE;
+        }
+
+        return vector;
+    }
+}
@@ -0,0 +1,10 @@
+package ru.panyukovnn.springaiagentsandbox.cli;
+
+/**
+ * Результат вызова jar-файла
+ *
+ * @param exitCode код выхода: 0 - успешно, 1 - main завершился исключением, иначе код System.exit
+ * @param output   объединённый вывод stdout и stderr
+ */
+public record CliCallResult(int exitCode, String output) {
+}
@@ -0,0 +1,111 @@
+package ru.panyukovnn.springaiagentsandbox.cli;
+
+import jakarta.annotation.PreDestroy;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Выполняет jar-файлы инструментов командной строки в пулах прогретых процессов вместо запуска JVM на каждый вызов.
+ * Точка входа jar вызывается повторно в одном процессе, поэтому статическое состояние jar сохраняется между вызовами.
+ * Jar, завершающий процесс через System.exit, работает как раньше: процесс заменяется новым при следующем вызове.
+ */
+@Slf4j
+@Component
+public class CliJarExecutor {
+
+    private static final List<String> WORKER_CLASS_NAMES = List.of(
+        JarWorkerMain.class.getName(),
+        JarWorkerMain.class.getName() + "$FramedOutputStream");
+
+    private final Map<Path, CliJarWorkerPool> pools = new ConcurrentHashMap<>();
+    private Path workerClassesPath;
+
+    @Value("${spring-ai-agent-sandbox.cli-tools.pool-size}")
+    private int poolSize;
+    @Value("${spring-ai-agent-sandbox.cli-tools.call-timeout}")
+    private Duration callTimeout;
+    @Value("${spring-ai-agent-sandbox.cli-tools.start-timeout}")
+    private Duration startTimeout;
+
+    /**
+     * Вызывает точку входа jar-файла в свободном прогретом процессе
+     *
+     * @param jarPath      путь к jar-файлу
+     * @param args         аргументы командной строки
+     * @param lineConsumer получает строки вывода по мере их появления
+     * @return код выхода и весь вывод вызова
+     */
+    @SneakyThrows
+    public CliCallResult execute(String jarPath, List<String> args, Consumer<String> lineConsumer) {
+        Path workerClasses = getWorkerClassesPath();
+
+        CliJarWorkerPool pool = pools.computeIfAbsent(Path.of(jarPath),
+            path -> new CliJarWorkerPool(path, workerClasses, poolSize, startTimeout));
+
+        long startNanos = System.nanoTime();
+        CliCallResult result = pool.execute(args, callTimeout, lineConsumer);
+        log.info("Вызов {} выполнен за {} мс, код выхода: {}", jarPath, (System.nanoTime() - startNanos) / 1_000_000, result.exitCode());
+
+        return result;
+    }
+
+    @PreDestroy
+    public void closePools() {
+        pools.values().forEach(CliJarWorkerPool::close);
+
+        if (workerClassesPath != null) {
+            try {
+                FileSystemUtils.deleteRecursively(workerClassesPath);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить каталог рабочих процессов: {}", workerClassesPath, e);
+            }
+        }
+    }
+
+    /**
+     * Рабочий процесс запускается без classpath приложения, поэтому класс его точки входа копируется во временный каталог
+     */
+    private synchronized Path getWorkerClassesPath() {
+        if (workerClassesPath != null) {
+            return workerClassesPath;
+        }
+
+        try {
+            Path classesDir = Files.createTempDirectory("cli-jar-worker");
+
+            for (String className : WORKER_CLASS_NAMES) {
+                String resourceName = className.replace('.', '/') + ".class";
+                Path target = classesDir.resolve(resourceName);
+                Files.createDirectories(target.getParent());
+
+                try (InputStream classBytes = CliJarExecutor.class.getClassLoader().getResourceAsStream(resourceName)) {
+                    if (classBytes == null) {
+                        throw new IllegalStateException("Не найден класс рабочего процесса: " + resourceName);
+                    }
+
+                    Files.copy(classBytes, target);
+                }
+            }
+
+            workerClassesPath = classesDir;
+
+            return workerClassesPath;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package ru.panyukovnn.springaiagentsandbox.cli;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Долгоживущий процесс JVM, в котором {@link JarWorkerMain} повторно вызывает точку входа jar-файла.
+ * Процесс обслуживает один вызов за раз. Если jar завершает процесс через System.exit или вызов не укладывается в таймаут,
+ * процесс перестаёт быть живым и должен быть заменён.
+ * <p>
+ * Потоки, которые jar оставляет работать после возврата из main, пишут в тот же вывод. Строки, появившиеся между вызовами,
+ * отбрасываются перед следующим запросом, но вывод таких потоков во время следующего вызова от вывода самого вызова
+ * не отличить, он попадёт в результат этого вызова.
+ */
+@Slf4j
+class CliJarWorker implements AutoCloseable {
+
+    private final Path jarPath;
+    private final Process process;
+    private final BufferedReader output;
+    private final BufferedWriter input;
+
+    private CliJarWorker(Path jarPath, Process process) {
+        this.jarPath = jarPath;
+        this.process = process;
+        this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        this.input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Запускает процесс и ждёт, пока он загрузит Main-Class jar-файла
+     *
+     * @param jarPath           jar-файл
+     * @param workerClassesPath каталог с классом {@link JarWorkerMain}
+     * @param startTimeout      максимальное время запуска
+     * @return готовый к вызовам процесс
+     */
+    static CliJarWorker start(Path jarPath, Path workerClassesPath, Duration startTimeout) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder("java",
+            "-cp", workerClassesPath + File.pathSeparator + jarPath,
+            JarWorkerMain.class.getName(),
+            jarPath.toString());
+        // Объединяем stderr в stdout, чтобы всё читать из одного потока
+        pb.redirectErrorStream(true);
+
+        CliJarWorker worker = new CliJarWorker(jarPath, pb.start());
+        CompletableFuture<Boolean> timedOut = worker.destroyAfter(startTimeout);
+
+        StringBuilder startOutput = new StringBuilder();
+        String line;
+        while ((line = worker.output.readLine()) != null) {
+            if (JarWorkerMain.READY_MARKER.equals(line) && timedOut.complete(false)) {
+                log.info("Запущен рабочий процесс {} для {}", worker.process.pid(), jarPath);
+
+                return worker;
+            }
+
+            startOutput.append(line).append(System.lineSeparator());
+        }
+
+        worker.close();
+        throw new IllegalStateException("Не удалось запустить рабочий процесс для %s%s. Текст: %s".formatted(
+            jarPath, timedOut.getNow(false) ? " за " + startTimeout : "", startOutput));
+    }
+
+    /**
+     * Вызывает точку входа jar-файла, строки вывода передаются потребителю по мере появления
+     *
+     * @param args         аргументы командной строки
+     * @param timeout      максимальное время вызова
+     * @param lineConsumer потребитель строк вывода
+     * @return код выхода и весь вывод вызова
+     */
+    CliCallResult execute(List<String> args, Duration timeout, Consumer<String> lineConsumer) throws IOException {
+        discardStrayOutput();
+
+        input.write(args.stream()
+            .map(arg -> URLEncoder.encode(arg, StandardCharsets.UTF_8))
+            .collect(Collectors.joining(" ")));
+        input.newLine();
+        input.flush();
+
+        CompletableFuture<Boolean> timedOut = destroyAfter(timeout);
+        StringBuilder callOutput = new StringBuilder();
+
+        String line;
+        while ((line = output.readLine()) != null) {
+            if (line.startsWith(JarWorkerMain.END_MARKER) && timedOut.complete(false)) {
+                return new CliCallResult(Integer.parseInt(line.substring(JarWorkerMain.END_MARKER.length())), callOutput.toString());
+            }
+
+            String outputLine = !line.isEmpty() && line.charAt(0) == JarWorkerMain.OUTPUT_PREFIX ? line.substring(1) : line;
+            callOutput.append(outputLine).append(System.lineSeparator());
+            lineConsumer.accept(outputLine);
+        }
+
+        if (timedOut.getNow(false)) {
+            throw new IllegalStateException("Вызов %s с аргументами %s не завершился за %s. Текст: %s".formatted(jarPath, args, timeout, callOutput));
+        }
+
+        // jar завершил процесс сам, вывод до завершения - результат вызова
+        try {
+            return new CliCallResult(process.waitFor(), callOutput.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Прервано ожидание завершения процесса " + jarPath, e);
+        }
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    @Override
+    public void close() {
+        process.destroyForcibly();
+    }
+
+    /**
+     * Отбрасывает уже полученный вывод фоновых потоков jar, напечатанный после завершения предыдущего вызова
+     */
+    private void discardStrayOutput() throws IOException {
+        int discardedLines = 0;
+
+        while (output.ready() && output.readLine() != null) {
+            discardedLines++;
+        }
+
+        if (discardedLines > 0) {
+            log.warn("Рабочий процесс {} для {} вывел между вызовами строк: {}, они отброшены", process.pid(), jarPath, discardedLines);
+        }
+    }
+
+    /**
+     * Завершает процесс, если до истечения времени результат не завершён значением false.
+     * Чтение вывода при этом прерывается концом потока, а результат равен true
+     */
+    private CompletableFuture<Boolean> destroyAfter(Duration timeout) {
+        CompletableFuture<Boolean> timedOut = new CompletableFuture<>();
+
+        CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (timedOut.complete(true)) {
+                log.warn("Рабочий процесс {} для {} не ответил за {}, процесс завершается", process.pid(), jarPath, timeout);
+                process.destroyForcibly();
+            }
+        });
+
+        return timedOut;
+    }
+}
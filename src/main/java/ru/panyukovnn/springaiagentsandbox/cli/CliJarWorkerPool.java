@@ -0,0 +1,140 @@
+package ru.panyukovnn.springaiagentsandbox.cli;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Пул прогретых рабочих процессов одного jar-файла. Первый вызов запускает свой процесс, а остальные до poolSize
+ * запускаются в фоне, чтобы следующие параллельные вызовы не ждали старта JVM. Процессы переиспользуются между вызовами. Последний освободившийся процесс выдаётся первым, так как его JIT прогрет лучше.
+ * Процесс, завершившийся во время вызова или не уложившийся в таймаут, отбрасывается, следующий вызов запустит новый.
+ */
+@Slf4j
+class CliJarWorkerPool implements AutoCloseable {
+
+    private final Path jarPath;
+    private final Path workerClassesPath;
+    private final Duration startTimeout;
+    private final int poolSize;
+    private final Semaphore callPermits;
+    private final BlockingDeque<CliJarWorker> idleWorkers = new LinkedBlockingDeque<>();
+    private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+    private volatile boolean closed;
+
+    CliJarWorkerPool(Path jarPath, Path workerClassesPath, int poolSize, Duration startTimeout) {
+        this.jarPath = jarPath;
+        this.workerClassesPath = workerClassesPath;
+        this.startTimeout = startTimeout;
+        this.poolSize = poolSize;
+        this.callPermits = new Semaphore(poolSize);
+    }
+
+    CliCallResult execute(List<String> args, Duration timeout, Consumer<String> lineConsumer) throws IOException, InterruptedException {
+        warmUpInBackground();
+        callPermits.acquire();
+
+        CliJarWorker worker = null;
+        try {
+            worker = pollAliveWorker();
+            if (worker == null) {
+                worker = CliJarWorker.start(jarPath, workerClassesPath, startTimeout);
+            }
+
+            return worker.execute(args, timeout, lineConsumer);
+        } finally {
+            if (worker != null) {
+                if (worker.isAlive()) {
+                    offerIdle(worker, true);
+                } else {
+                    log.info("Рабочий процесс для {} завершился и будет заменён при следующем вызове", jarPath);
+                    worker.close();
+                }
+            }
+
+            callPermits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        CliJarWorker worker;
+        while ((worker = idleWorkers.pollFirst()) != null) {
+            worker.close();
+        }
+    }
+
+    /**
+     * Однократно запускает в фоне процессы до poolSize, не считая процесса первого вызова.
+     * Фоновые процессы ещё не прогреты вызовами, поэтому выдаются после уже использованных
+     */
+    private void warmUpInBackground() {
+        if (poolSize <= 1 || !warmUpStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        Thread.ofVirtual().name("cli-jar-warm-up").start(() -> {
+            for (int i = 1; i < poolSize && !closed; i++) {
+                try {
+                    if (!offerIdle(CliJarWorker.start(jarPath, workerClassesPath, startTimeout), false)) {
+                        return;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Не удалось заранее запустить рабочий процесс для {}", jarPath, e);
+
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Возвращает процесс в пул. Процесс закрывается, если пул закрыт или свободных процессов уже poolSize
+     *
+     * @return false, если процесс закрыт
+     */
+    private boolean offerIdle(CliJarWorker worker, boolean first) {
+        if (closed || idleWorkers.size() >= poolSize) {
+            worker.close();
+
+            return false;
+        }
+
+        if (first) {
+            idleWorkers.offerFirst(worker);
+        } else {
+            idleWorkers.offerLast(worker);
+        }
+
+        // пул мог закрыться между проверкой и добавлением
+        if (closed && idleWorkers.remove(worker)) {
+            worker.close();
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private CliJarWorker pollAliveWorker() {
+        CliJarWorker worker;
+        while ((worker = idleWorkers.pollFirst()) != null) {
+            if (worker.isAlive()) {
+                return worker;
+            }
+
+            worker.close();
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,117 @@
+package ru.panyukovnn.springaiagentsandbox.cli;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+/**
+ * Точка входа долгоживущего рабочего процесса {@link CliJarWorker}: загружает Main-Class jar-файла один раз
+ * и вызывает его main для каждой строки запроса из stdin.
+ * <p>
+ * Протокол построчный: запрос - аргументы через пробел в URL-кодировке, вывод main возвращается строками с префиксом
+ * {@value #OUTPUT_PREFIX}, завершение вызова - строка {@value #END_MARKER} с кодом выхода.
+ * Класс запускается в отдельной JVM без зависимостей приложения, поэтому использует только JDK.
+ */
+public final class JarWorkerMain {
+
+    static final String READY_MARKER = "#READY";
+    static final String END_MARKER = "#END ";
+    static final char OUTPUT_PREFIX = '|';
+
+    private JarWorkerMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mainClassName;
+        try (JarFile jarFile = new JarFile(args[0])) {
+            mainClassName = jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        }
+        Method jarMain = Class.forName(mainClassName).getMethod("main", String[].class);
+
+        PrintStream protocol = new PrintStream(new FileOutputStream(FileDescriptor.out), false, StandardCharsets.UTF_8);
+        FramedOutputStream framedOutput = new FramedOutputStream(protocol);
+        PrintStream capturedOutput = new PrintStream(framedOutput, true, StandardCharsets.UTF_8);
+        BufferedReader requests = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+
+        System.setOut(capturedOutput);
+        System.setErr(capturedOutput);
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+
+        protocol.println(READY_MARKER);
+        protocol.flush();
+
+        String request;
+        while ((request = requests.readLine()) != null) {
+            int exitCode = 0;
+
+            try {
+                jarMain.invoke(null, (Object) decodeArgs(request));
+            } catch (InvocationTargetException e) {
+                e.getCause().printStackTrace(capturedOutput);
+                exitCode = 1;
+            }
+
+            capturedOutput.flush();
+            framedOutput.flushPendingLine();
+            protocol.println(END_MARKER + exitCode);
+            protocol.flush();
+        }
+    }
+
+    private static String[] decodeArgs(String request) {
+        if (request.isEmpty()) {
+            return new String[0];
+        }
+
+        return Arrays.stream(request.split(" "))
+            .map(arg -> URLDecoder.decode(arg, StandardCharsets.UTF_8))
+            .toArray(String[]::new);
+    }
+
+    /**
+     * Выводит каждую строку вывода jar с префиксом, чтобы она не совпала с маркерами протокола
+     */
+    private static final class FramedOutputStream extends OutputStream {
+
+        private final PrintStream protocol;
+        private final ByteArrayOutputStream pendingLine = new ByteArrayOutputStream();
+
+        FramedOutputStream(PrintStream protocol) {
+            this.protocol = protocol;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                writeLine();
+            } else if (b != '\r') {
+                pendingLine.write(b);
+            }
+        }
+
+        synchronized void flushPendingLine() {
+            if (pendingLine.size() > 0) {
+                writeLine();
+            }
+        }
+
+        private void writeLine() {
+            protocol.write(OUTPUT_PREFIX);
+            protocol.writeBytes(pendingLine.toByteArray());
+            protocol.write('\n');
+            pendingLine.reset();
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package ru.panyukovnn.springaiagentsandbox.client.feign;
 
+import feign.Response;
 import jakarta.validation.Valid;
 import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import ru.panyukovnn.springaiagentsandbox.dto.common.CommonRequest;
 import ru.panyukovnn.springaiagentsandbox.dto.common.CommonResponse;
 import ru.panyukovnn.springaiagentsandbox.dto.searchchat.SearchChatsResponse;
@@ -23,4 +26,13 @@ public interface TgChatsCollectorClient {
 
     @PostMapping("/search-chat-history")
     CommonResponse<SearchChatHistoryResponse> postSearchChatHistory(@RequestBody CommonRequest<SearchChatHistoryRequest> searchChatHistory);
+
+    /**
+     * То же, что {@link #postSearchChatHistory}, но без десериализации: тело ответа читается потоково.
+     * Формат и сжатие ответа согласуются заголовками, разбор - {@link ru.panyukovnn.springaiagentsandbox.history.ChatHistoryResponseReader}
+     */
+    @PostMapping("/search-chat-history")
+    Response postSearchChatHistoryRaw(@RequestHeader(HttpHeaders.ACCEPT) String accept,
+                                      @RequestHeader(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+                                      @RequestBody CommonRequest<SearchChatHistoryRequest> searchChatHistory);
 }
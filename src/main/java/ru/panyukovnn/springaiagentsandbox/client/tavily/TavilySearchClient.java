@@ -0,0 +1,256 @@
+package ru.panyukovnn.springaiagentsandbox.client.tavily;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Клиент поиска Tavily с кэшем ответов в памяти.
+ * Ключ кэша - нормализованный запрос, записи живут cache-ttl, при превышении cache-max-entries вытесняются давно не запрошенные.
+ * Одновременные одинаковые запросы выполняются один раз.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TavilySearchClient {
+
+    private final RestClient tavilyRestClient;
+    private final ObjectMapper objectMapper;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * Порядок доступа нужен для вытеснения давно не запрошенных записей
+     */
+    private final LinkedHashMap<String, CachedSearch> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Value("${spring-ai-agent-sandbox.api-keys.tavily}")
+    private String tavilyApiKey;
+    @Value("${spring-ai-agent-sandbox.integration.tavily.max-results}")
+    private int maxResults;
+    @Value("${spring-ai-agent-sandbox.integration.tavily.cache-ttl}")
+    private Duration cacheTtl;
+    @Value("${spring-ai-agent-sandbox.integration.tavily.cache-max-entries}")
+    private int cacheMaxEntries;
+    @Value("${spring-ai-agent-sandbox.integration.tavily.fan-out-parallelism}")
+    private int fanOutParallelism;
+
+    /**
+     * Выполняет поиск или возвращает ответ из кэша
+     *
+     * @param query поисковый запрос
+     * @return ответ Tavily в формате json
+     */
+    public String search(String query) {
+        String key = normalizeQuery(query);
+        CachedSearch cachedSearch;
+        boolean owner = false;
+
+        synchronized (cache) {
+            cachedSearch = cache.get(key);
+
+            if (cachedSearch == null || cachedSearch.expiresAt().isBefore(Instant.now())) {
+                cachedSearch = new CachedSearch(new CompletableFuture<>(), Instant.now().plus(cacheTtl));
+                cache.put(key, cachedSearch);
+                owner = true;
+
+                if (cache.size() > cacheMaxEntries) {
+                    cache.pollFirstEntry();
+                }
+            }
+        }
+
+        if (!owner) {
+            hits.incrementAndGet();
+            log.info("Результат поиска взят из кэша: {}", query);
+
+            return await(cachedSearch.response());
+        }
+
+        misses.incrementAndGet();
+
+        try {
+            String response = requestSearch(query);
+            cachedSearch.response().complete(response);
+
+            return response;
+        } catch (RuntimeException e) {
+            cachedSearch.response().completeExceptionally(e);
+
+            synchronized (cache) {
+                cache.remove(key, cachedSearch);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Выполняет несколько поисков одновременно и объединяет результаты.
+     * Результаты с одинаковым адресом схлопываются, остаётся наибольшая оценка и список запросов, которые их нашли
+     *
+     * @param queries поисковые запросы
+     * @return объединённые результаты, упорядоченные по убыванию оценки, в формате json
+     */
+    @SneakyThrows
+    public String searchAll(List<String> queries) {
+        Map<String, String> queriesByKey = new LinkedHashMap<>();
+        queries.forEach(query -> queriesByKey.putIfAbsent(normalizeQuery(query), query));
+        List<String> distinctQueries = List.copyOf(queriesByKey.values());
+
+        Semaphore runningSearches = new Semaphore(fanOutParallelism);
+        Map<String, CompletableFuture<String>> responses = new LinkedHashMap<>();
+
+        try (ExecutorService virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String query : distinctQueries) {
+                responses.put(query, CompletableFuture.supplyAsync(() -> {
+                    runningSearches.acquireUninterruptibly();
+                    try {
+                        return search(query);
+                    } finally {
+                        runningSearches.release();
+                    }
+                }, virtualThreadExecutor));
+            }
+        }
+
+        Map<String, ObjectNode> resultsByUrl = new LinkedHashMap<>();
+        List<String> failedQueries = new ArrayList<>();
+
+        for (Map.Entry<String, CompletableFuture<String>> response : responses.entrySet()) {
+            String query = response.getKey();
+
+            try {
+                mergeResults(query, objectMapper.readTree(await(response.getValue())), resultsByUrl);
+            } catch (RuntimeException | JsonProcessingException e) {
+                log.warn("Не удалось выполнить поиск по запросу: {}", query, e);
+                failedQueries.add(query);
+            }
+        }
+
+        if (failedQueries.size() == distinctQueries.size() && !distinctQueries.isEmpty()) {
+            throw new IllegalStateException("Не удалось выполнить ни один поисковый запрос: " + failedQueries);
+        }
+
+        ObjectNode merged = objectMapper.createObjectNode();
+        merged.set("queries", objectMapper.valueToTree(distinctQueries));
+        if (!failedQueries.isEmpty()) {
+            merged.set("failedQueries", objectMapper.valueToTree(failedQueries));
+        }
+
+        ArrayNode results = merged.putArray("results");
+        resultsByUrl.values().stream()
+            .sorted(Comparator.comparingDouble((ObjectNode result) -> result.path("score").asDouble()).reversed())
+            .forEach(results::add);
+
+        log.info("Выполнено поисковых запросов: {}, найдено уникальных результатов: {}", distinctQueries.size(), results.size());
+
+        return objectMapper.writeValueAsString(merged);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private String requestSearch(String query) {
+        return tavilyRestClient.post()
+            .uri("/search")
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(Map.of(
+                "api_key", tavilyApiKey,
+                "query", query,
+                "max_results", maxResults
+            ))
+            .retrieve()
+            .body(String.class);
+    }
+
+    private void mergeResults(String query, JsonNode response, Map<String, ObjectNode> resultsByUrl) {
+        for (JsonNode result : response.path("results")) {
+            if (!(result instanceof ObjectNode resultObject) || !result.hasNonNull("url")) {
+                continue;
+            }
+
+            String url = normalizeUrl(result.get("url").asText());
+            ObjectNode existing = resultsByUrl.get(url);
+
+            if (existing == null) {
+                ObjectNode copy = resultObject.deepCopy();
+                copy.putArray("queries").add(query);
+                resultsByUrl.put(url, copy);
+            } else {
+                Set<String> foundBy = new LinkedHashSet<>();
+                existing.path("queries").forEach(foundByQuery -> foundBy.add(foundByQuery.asText()));
+                foundBy.add(query);
+
+                if (result.path("score").asDouble() > existing.path("score").asDouble()) {
+                    existing.setAll(resultObject);
+                }
+                existing.set("queries", objectMapper.valueToTree(foundBy));
+            }
+        }
+    }
+
+    private static String normalizeQuery(String query) {
+        return query.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Адреса сравниваются без фрагмента, завершающего слэша и регистра схемы и хоста
+     */
+    private static String normalizeUrl(String url) {
+        String withoutFragment = url.contains("#") ? url.substring(0, url.indexOf('#')) : url;
+        String withoutSlash = withoutFragment.endsWith("/") ? withoutFragment.substring(0, withoutFragment.length() - 1) : withoutFragment;
+
+        int pathStart = withoutSlash.indexOf('/', withoutSlash.indexOf("://") + 3);
+        if (withoutSlash.indexOf("://") < 0 || pathStart < 0) {
+            return withoutSlash.toLowerCase(Locale.ROOT);
+        }
+
+        return withoutSlash.substring(0, pathStart).toLowerCase(Locale.ROOT) + withoutSlash.substring(pathStart);
+    }
+
+    private static String await(CompletableFuture<String> response) {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    private record CachedSearch(CompletableFuture<String> response, Instant expiresAt) {
+    }
+}
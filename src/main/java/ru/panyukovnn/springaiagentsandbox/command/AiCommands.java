@@ -2,17 +2,29 @@ package ru.panyukovnn.springaiagentsandbox.command;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.jline.terminal.Terminal;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
+import ru.panyukovnn.springaiagentsandbox.metrics.LlmMetricsAdvisor;
+import ru.panyukovnn.springaiagentsandbox.toolresult.ToolResultCompactor;
 import ru.panyukovnn.springaiagentsandbox.tools.DateTimeTool;
 import ru.panyukovnn.springaiagentsandbox.tools.TavilyWebSearchTool;
 import ru.panyukovnn.springaiagentsandbox.tools.TgChatsCollectorTool;
+import ru.panyukovnn.springaiagentsandbox.tools.ToolResultFetchTool;
 import ru.panyukovnn.springaiagentsandbox.tools.YtSubtitlesTool;
+import ru.panyukovnn.springaiagentsandbox.usage.LlmCallUsage;
+import ru.panyukovnn.springaiagentsandbox.usage.LlmUsageRecorder;
+
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Shell команды для демонстрации работы Spring AI с DeepSeek
@@ -28,6 +40,16 @@ public class AiCommands {
     private final YtSubtitlesTool ytSubtitlesTool;
     private final TgChatsCollectorTool tgChatsCollectorTool;
     private final TavilyWebSearchTool tavilyWebSearchTool;
+    private final ToolResultFetchTool toolResultFetchTool;
+    private final ToolResultCompactor toolResultCompactor;
+    private final LlmUsageRecorder llmUsageRecorder;
+    private final Terminal terminal;
+
+    /**
+     * Печатать ответ модели в терминал по мере генерации
+     */
+    @Value("${spring-ai-agent-sandbox.shell.streaming}")
+    private boolean streaming;
 
     /**
      * Отправить простой запрос к AI модели
@@ -39,14 +61,7 @@ public class AiCommands {
     public String ask(@ShellOption(value = {"-m", "--message"}, help = "Текст запроса") String message) {
         log.info("Отправка запроса к AI: {}", message);
 
-        String response = chatClient
-            .prompt(message)
-            .call()
-            .content();
-
-        log.info("Получен ответ от AI");
-
-        return response;
+        return respond(chatClient.prompt(message), "ask");
     }
 
     /**
@@ -59,16 +74,13 @@ public class AiCommands {
     public String askYt(@ShellOption(value = {"-m", "--message"}, help = "Текст запроса") String message) {
         log.info("Отправка запроса к AI: {}", message);
 
-        String response = chatClient
+        ChatClient.ChatClientRequestSpec requestSpec = chatClient
             .prompt(message)
-            .tools(ytSubtitlesTool)
-            .advisors(MessageChatMemoryAdvisor.builder(chatMemory).build())
-            .call()
-            .content();
-
-        log.info("Получен ответ от AI");
+            .toolCallbacks(toolResultCompactor.compacting(message, ytSubtitlesTool))
+            .tools(toolResultFetchTool)
+            .advisors(MessageChatMemoryAdvisor.builder(chatMemory).build());
 
-        return response;
+        return respond(requestSpec, "askYt");
     }
 
     /**
@@ -81,31 +93,83 @@ public class AiCommands {
     public String askTg(@ShellOption(value = {"-m", "--message"}, help = "Текст запроса") String message) {
         log.info("Отправка запроса к AI: {}", message);
 
-        ChatResponse chatResponse = chatClient
+        ChatClient.ChatClientRequestSpec requestSpec = chatClient
             .prompt(message)
             .advisors(MessageChatMemoryAdvisor.builder(chatMemory).build())
-            .tools(tgChatsCollectorTool, dateTimeTool)
-            .call()
-            .chatResponse();
+            .toolCallbacks(toolResultCompactor.compacting(message, tgChatsCollectorTool))
+            .tools(dateTimeTool, toolResultFetchTool);
 
-        log.info("Получен ответ от AI. Токены: {}", chatResponse.getMetadata().getUsage().getTotalTokens());
-
-        return chatResponse.getResult().getOutput().getText();
+        return respond(requestSpec, "askTg");
     }
 
     @ShellMethod(key = "searchWeb", value = "Спросить с поиском в интернете")
     public String searchWeb(@ShellOption(value = {"-m", "--message"}, help = "Промт") String message) {
         log.info("Отправка запроса к AI: {}", message);
 
-        ChatResponse chatResponse = chatClient
+        ChatClient.ChatClientRequestSpec requestSpec = chatClient
             .prompt(message)
             .advisors(MessageChatMemoryAdvisor.builder(chatMemory).build())
-            .tools(tavilyWebSearchTool)
-            .call()
-            .chatResponse();
+            .toolCallbacks(toolResultCompactor.compacting(message, tavilyWebSearchTool))
+            .tools(toolResultFetchTool);
 
-        log.info("Получен ответ от AI. Токены: {}", chatResponse.getMetadata().getUsage().getTotalTokens());
+        return respond(requestSpec, "searchWeb");
+    }
 
-        return chatResponse.getResult().getOutput().getText();
+    /**
+     * Выполняет запрос к модели. В потоковом режиме токены печатаются в терминал по мере генерации,
+     * а команда возвращает null, так как ответ уже выведен
+     *
+     * @param requestSpec подготовленный запрос
+     * @param scenario    сценарий для метрик и учёта расхода токенов
+     * @return ответ модели или null в потоковом режиме
+     */
+    private String respond(ChatClient.ChatClientRequestSpec requestSpec, String scenario) {
+        requestSpec.advisors(advisor -> advisor.param(LlmMetricsAdvisor.SCENARIO_PARAM, scenario));
+
+        if (!streaming) {
+            ChatResponse chatResponse = requestSpec.call().chatResponse();
+
+            LlmCallUsage usage = llmUsageRecorder.extract(chatResponse);
+            log.info("Получен ответ от AI. Токены: {}", usage.totalTokens());
+
+            return chatResponse == null || chatResponse.getResult() == null
+                ? null
+                : chatResponse.getResult().getOutput().getText();
+        }
+
+        long startNanos = System.nanoTime();
+        AtomicLong firstTokenNanos = new AtomicLong();
+        AtomicReference<ChatResponse> responseWithUsage = new AtomicReference<>();
+        PrintWriter writer = terminal.writer();
+
+        requestSpec.stream()
+            .chatResponse()
+            .doOnNext(chunk -> {
+                String text = chunk.getResult() == null ? null : chunk.getResult().getOutput().getText();
+
+                if (text != null && !text.isEmpty()) {
+                    firstTokenNanos.compareAndSet(0, System.nanoTime());
+                    writer.print(text);
+                    writer.flush();
+                }
+
+                if (chunk.getMetadata() != null && chunk.getMetadata().getUsage() != null
+                    && chunk.getMetadata().getUsage().getTotalTokens() != null
+                    && chunk.getMetadata().getUsage().getTotalTokens() > 0) {
+                    responseWithUsage.set(chunk);
+                }
+            })
+            .blockLast();
+
+        writer.println();
+        writer.flush();
+
+        LlmCallUsage usage = llmUsageRecorder.extract(responseWithUsage.get());
+        log.info("Получен ответ от AI. Первый токен через {} мс, весь ответ через {} мс. Токены: {}",
+            firstTokenNanos.get() == 0 ? "н/д" : Duration.ofNanos(firstTokenNanos.get() - startNanos).toMillis(),
+            Duration.ofNanos(System.nanoTime() - startNanos).toMillis(),
+            usage.totalTokens());
+
+        return null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package ru.panyukovnn.springaiagentsandbox.command;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+import ru.panyukovnn.springaiagentsandbox.batch.BatchReport;
+import ru.panyukovnn.springaiagentsandbox.batch.BatchRunner;
+
+import java.nio.file.Path;
+
+/**
+ * Shell команды для пакетной обработки вопросов.
+ * Команду можно запустить без интерактивного режима, передав её в аргументах приложения:
+ * {@code java -jar spring-ai-agent-sandbox-1.0-SNAPSHOT.jar runBatch --jobs jobs.jsonl --results results.jsonl}
+ */
+@Slf4j
+@ShellComponent
+@RequiredArgsConstructor
+public class BatchCommands {
+
+    private final BatchRunner batchRunner;
+
+    @Value("${spring-ai-agent-sandbox.batch.parallelism}")
+    private int defaultParallelism;
+
+    /**
+     * Выполнить пакет вопросов к перепискам телеграм
+     *
+     * @param jobs        файл заданий jsonl: chatId, topicId, dateFrom, question, strategy (mapReduce, lookup, rag)
+     * @param results     файл результатов jsonl, дописывается по мере выполнения заданий
+     * @param parallelism сколько заданий выполняется одновременно, 0 - значение из настроек
+     * @return итоги запуска: пропускная способность, перцентили длительности заданий и расход токенов
+     */
+    @ShellMethod(key = "runBatch", value = "Выполнить пакет вопросов к перепискам телеграм из файла jsonl")
+    public String runBatch(@ShellOption(value = {"-j", "--jobs"}, help = "Файл заданий jsonl") String jobs,
+                           @ShellOption(value = {"-r", "--results"}, help = "Файл результатов jsonl") String results,
+                           @ShellOption(value = {"-p", "--parallelism"}, defaultValue = "0", help = "Заданий одновременно") int parallelism) {
+        log.info("Пакетный запуск заданий из файла: {}", jobs);
+
+        BatchReport report = batchRunner.run(Path.of(jobs), Path.of(results), parallelism > 0 ? parallelism : defaultParallelism);
+
+        return report.render();
+    }
+}
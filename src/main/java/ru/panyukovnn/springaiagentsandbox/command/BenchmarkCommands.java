@@ -0,0 +1,118 @@
+package ru.panyukovnn.springaiagentsandbox.command;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+import ru.panyukovnn.springaiagentsandbox.benchmark.SyntheticEmbeddingModel;
+import ru.panyukovnn.springaiagentsandbox.rag.HnswVectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Shell команды для офлайн замеров на синтетических данных
+ */
+@Slf4j
+@ShellComponent
+public class BenchmarkCommands {
+
+    private static final int CLUSTERS = 50;
+    private static final int[] EF_SEARCH_VALUES = {10, 20, 50, 100, 200, 400};
+    private static final String ORDER_METADATA = "order";
+
+    @Value("${spring-ai-agent-sandbox.rag.hnsw.m}")
+    private int hnswM;
+    @Value("${spring-ai-agent-sandbox.rag.hnsw.ef-construction}")
+    private int hnswEfConstruction;
+
+    /**
+     * Сравнить полноту и задержку поиска HNSW с полным перебором SimpleVectorStore
+     *
+     * @param documents  количество документов в хранилище
+     * @param queries    количество поисковых запросов
+     * @param dimensions размерность эмбеддингов
+     * @param topK       количество ближайших документов
+     * @param matching   процент самых поздних документов, подходящих под фильтр запроса; 100 - без фильтра
+     * @return таблица полнота/задержка для разных значений ef-search
+     */
+    @ShellMethod(key = "compareVectorStores", value = "Сравнить полноту и задержку поиска HNSW и SimpleVectorStore на синтетических эмбеддингах")
+    public String compareVectorStores(@ShellOption(value = {"-d", "--documents"}, defaultValue = "20000", help = "Количество документов") int documents,
+                                      @ShellOption(value = {"-q", "--queries"}, defaultValue = "100", help = "Количество запросов") int queries,
+                                      @ShellOption(value = {"--dimensions"}, defaultValue = "256", help = "Размерность эмбеддингов") int dimensions,
+                                      @ShellOption(value = {"-k", "--top-k"}, defaultValue = "10", help = "Количество ближайших документов") int topK,
+                                      @ShellOption(value = {"-m", "--matching-percent"}, defaultValue = "100", help = "Процент самых поздних документов, подходящих под фильтр, как при поиске с dateFrom") int matching) {
+        SyntheticEmbeddingModel embeddingModel = new SyntheticEmbeddingModel(dimensions, CLUSTERS);
+
+        List<Document> docs = IntStream.range(0, documents)
+            .mapToObj(i -> new Document("doc-" + i, Map.of(ORDER_METADATA, i)))
+            .toList();
+        long firstMatchingOrder = documents - (long) documents * matching / 100;
+        List<SearchRequest> searchRequests = IntStream.range(0, queries)
+            .mapToObj(i -> {
+                SearchRequest.Builder searchRequest = SearchRequest.builder()
+                    .query("query-" + i)
+                    .topK(topK);
+
+                return matching >= 100
+                    ? searchRequest.build()
+                    : searchRequest.filterExpression(new FilterExpressionBuilder().gte(ORDER_METADATA, firstMatchingOrder).build()).build();
+            })
+            .toList();
+
+        long startedAt = System.nanoTime();
+        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        simpleVectorStore.add(docs);
+        long simpleBuildMs = (System.nanoTime() - startedAt) / 1_000_000;
+
+        startedAt = System.nanoTime();
+        HnswVectorStore hnswVectorStore = new HnswVectorStore(embeddingModel, hnswM, hnswEfConstruction, EF_SEARCH_VALUES[0]);
+        hnswVectorStore.add(docs);
+        long hnswBuildMs = (System.nanoTime() - startedAt) / 1_000_000;
+
+        List<Set<String>> exactResults = new ArrayList<>(queries);
+        startedAt = System.nanoTime();
+        searchRequests.forEach(searchRequest -> exactResults.add(toTexts(simpleVectorStore.similaritySearch(searchRequest))));
+        double simpleLatencyUs = (System.nanoTime() - startedAt) / 1_000.0 / queries;
+
+        StringBuilder report = new StringBuilder()
+            .append("Документов: %s, запросов: %s, размерность: %s, topK: %s, подходят под фильтр: %s%%%n".formatted(documents, queries, dimensions, topK, matching))
+            .append("Индексация: SimpleVectorStore %s мс, HNSW (m=%s, ef-construction=%s) %s мс%n".formatted(simpleBuildMs, hnswM, hnswEfConstruction, hnswBuildMs))
+            .append("%-24s %10s %14s%n".formatted("хранилище", "полнота", "задержка, мкс"))
+            .append("%-24s %10.3f %14.1f%n".formatted("SimpleVectorStore", 1.0, simpleLatencyUs));
+
+        for (int efSearch : EF_SEARCH_VALUES) {
+            int found = 0;
+
+            startedAt = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                Set<String> approximate = toTexts(hnswVectorStore.similaritySearch(searchRequests.get(i), efSearch));
+                found += (int) approximate.stream()
+                    .filter(exactResults.get(i)::contains)
+                    .count();
+            }
+            double latencyUs = (System.nanoTime() - startedAt) / 1_000.0 / queries;
+
+            report.append("%-24s %10.3f %14.1f%n".formatted("HNSW ef-search=" + efSearch, found / (double) (queries * topK), latencyUs));
+        }
+
+        log.info("Результаты сравнения векторных хранилищ:\n{}", report);
+
+        return report.toString();
+    }
+
+    private static Set<String> toTexts(List<Document> documents) {
+        return documents.stream()
+            .map(Document::getText)
+            .collect(Collectors.toSet());
+    }
+}
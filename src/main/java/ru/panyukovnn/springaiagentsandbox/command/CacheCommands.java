@@ -0,0 +1,121 @@
+package ru.panyukovnn.springaiagentsandbox.command;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import ru.panyukovnn.springaiagentsandbox.advisor.LlmResponseCacheAdvisor;
+import ru.panyukovnn.springaiagentsandbox.client.tavily.TavilySearchClient;
+import ru.panyukovnn.springaiagentsandbox.embedding.CachingEmbeddingModel;
+import ru.panyukovnn.springaiagentsandbox.subtitles.YtSubtitlesCache;
+import ru.panyukovnn.springaiagentsandbox.usage.LlmUsageRecorder;
+
+/**
+ * Shell команды для просмотра состояния кэшей
+ */
+@ShellComponent
+@RequiredArgsConstructor
+public class CacheCommands {
+
+    private final CachingEmbeddingModel cachingEmbeddingModel;
+    private final LlmResponseCacheAdvisor llmResponseCacheAdvisor;
+    private final LlmUsageRecorder llmUsageRecorder;
+    private final YtSubtitlesCache ytSubtitlesCache;
+    private final TavilySearchClient tavilySearchClient;
+
+    /**
+     * Показать статистику кэша эмбеддингов
+     *
+     * @return количество попаданий и промахов кэша
+     */
+    @ShellMethod(key = "embeddingCacheStats", value = "Показать статистику кэша эмбеддингов")
+    public String embeddingCacheStats() {
+        long hits = cachingEmbeddingModel.getHits();
+        long misses = cachingEmbeddingModel.getMisses();
+        long total = hits + misses;
+
+        return "Попаданий: %s, промахов: %s, доля попаданий: %.1f%%. Векторов в кэше: %s из %s".formatted(
+            hits,
+            misses,
+            total == 0 ? 0.0 : hits * 100.0 / total,
+            cachingEmbeddingModel.getSize(),
+            cachingEmbeddingModel.getCapacity());
+    }
+
+    /**
+     * Показать статистику кэша ответов LLM
+     *
+     * @return количество попаданий и промахов кэша
+     */
+    @ShellMethod(key = "llmCacheStats", value = "Показать статистику кэша ответов LLM")
+    public String llmCacheStats() {
+        long hits = llmResponseCacheAdvisor.getHits();
+        long misses = llmResponseCacheAdvisor.getMisses();
+        long total = hits + misses;
+
+        return "Попаданий: %s, промахов: %s, доля попаданий: %.1f%%".formatted(
+            hits,
+            misses,
+            total == 0 ? 0.0 : hits * 100.0 / total);
+    }
+
+    /**
+     * Показать статистику кэша субтитров YouTube
+     *
+     * @return количество попаданий, промахов и объединённых одновременных запросов
+     */
+    @ShellMethod(key = "ytSubtitlesCacheStats", value = "Показать статистику кэша субтитров YouTube")
+    public String ytSubtitlesCacheStats() {
+        long hits = ytSubtitlesCache.getHits();
+        long misses = ytSubtitlesCache.getMisses();
+        long total = hits + misses;
+
+        return "Попаданий: %s, промахов: %s, доля попаданий: %.1f%%. Объединено одновременных запросов: %s. Размер на диске: %s байт".formatted(
+            hits,
+            misses,
+            total == 0 ? 0.0 : hits * 100.0 / total,
+            ytSubtitlesCache.getCoalesced(),
+            ytSubtitlesCache.getSizeBytes());
+    }
+
+    /**
+     * Показать статистику кэша результатов веб-поиска
+     *
+     * @return количество попаданий и промахов кэша
+     */
+    @ShellMethod(key = "webSearchCacheStats", value = "Показать статистику кэша результатов веб-поиска")
+    public String webSearchCacheStats() {
+        long hits = tavilySearchClient.getHits();
+        long misses = tavilySearchClient.getMisses();
+        long total = hits + misses;
+
+        return "Попаданий: %s, промахов: %s, доля попаданий: %.1f%%".formatted(
+            hits,
+            misses,
+            total == 0 ? 0.0 : hits * 100.0 / total);
+    }
+
+    /**
+     * Показать статистику кэша префиксов промтов на стороне провайдера LLM
+     *
+     * @return токены промтов из кэша и вне кэша по сценариям
+     */
+    @ShellMethod(key = "promptCacheStats", value = "Показать статистику кэша префиксов промтов по сценариям")
+    public String promptCacheStats() {
+        StringBuilder stats = new StringBuilder();
+
+        llmUsageRecorder.getScenarios().forEach((scenario, usage) -> {
+            long cachedAndMissed = usage.getCacheHitTokens() + usage.getCacheMissTokens();
+
+            stats.append("%s: вызовов %s, токенов промта %s, ответа %s, из кэша %s, вне кэша %s, доля попаданий: %.1f%%%n".formatted(
+                scenario,
+                usage.getCalls(),
+                usage.getPromptTokens(),
+                usage.getCompletionTokens(),
+                usage.getCacheHitTokens(),
+                usage.getCacheMissTokens(),
+                cachedAndMissed == 0 ? 0.0 : usage.getCacheHitTokens() * 100.0 / cachedAndMissed));
+        });
+
+        return stats.isEmpty() ? "Вызовов LLM ещё не было" : stats.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package ru.panyukovnn.springaiagentsandbox.command;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.RequiredArgsConstructor;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import ru.panyukovnn.springaiagentsandbox.embedding.CachingEmbeddingModel;
+import ru.panyukovnn.springaiagentsandbox.metrics.LlmMetricsAdvisor;
+import ru.panyukovnn.springaiagentsandbox.usage.LlmUsageRecorder;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Shell команды для просмотра метрик вызовов LLM, embedding модели, инструментов и tg-chats-collector
+ */
+@ShellComponent
+@RequiredArgsConstructor
+public class MetricsCommands {
+
+    /**
+     * Таймеры Spring AI для вызовов инструментов и Feign клиента для вызовов tg-chats-collector
+     */
+    private static final String TOOL_TIMER = "spring.ai.tool";
+    private static final String HTTP_CLIENT_TIMER = "http.client.requests";
+    private static final Set<String> TIMER_NAMES = Set.of(
+        LlmMetricsAdvisor.LLM_CALL_TIMER,
+        LlmMetricsAdvisor.LLM_FIRST_TOKEN_TIMER,
+        CachingEmbeddingModel.EMBEDDING_BATCH_TIMER,
+        TOOL_TIMER,
+        HTTP_CLIENT_TIMER);
+    private static final Set<String> COUNTER_NAMES = Set.of(
+        LlmUsageRecorder.LLM_TOKENS_COUNTER,
+        CachingEmbeddingModel.EMBEDDING_TEXTS_COUNTER,
+        CachingEmbeddingModel.EMBEDDING_TOKENS_COUNTER);
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Показать перцентили длительности вызовов и суммарный расход токенов
+     *
+     * @return таблица метрик
+     */
+    @ShellMethod(key = "stats", value = "Показать p50/p95/p99 длительности вызовов и расход токенов")
+    public String stats() {
+        StringBuilder stats = new StringBuilder();
+
+        List<Timer> timers = meterRegistry.getMeters().stream()
+            .filter(meter -> meter instanceof Timer && TIMER_NAMES.contains(meter.getId().getName()))
+            .map(Timer.class::cast)
+            .sorted(Comparator.comparing(MetricsCommands::describe))
+            .toList();
+
+        for (Timer timer : timers) {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+
+            stats.append("%s: вызовов %s, p50 %s, p95 %s, p99 %s, max %.0f мс%n".formatted(
+                describe(timer),
+                snapshot.count(),
+                percentile(snapshot, 0.5),
+                percentile(snapshot, 0.95),
+                percentile(snapshot, 0.99),
+                snapshot.max(TimeUnit.MILLISECONDS)));
+        }
+
+        meterRegistry.getMeters().stream()
+            .filter(meter -> meter instanceof Counter && COUNTER_NAMES.contains(meter.getId().getName()))
+            .map(Counter.class::cast)
+            .sorted(Comparator.comparing(MetricsCommands::describe))
+            .forEach(counter -> stats.append("%s: %.0f%n".formatted(describe(counter), counter.count())));
+
+        return stats.isEmpty() ? "Метрик ещё нет" : stats.toString();
+    }
+
+    private static String percentile(HistogramSnapshot snapshot, double percentile) {
+        for (ValueAtPercentile valueAtPercentile : snapshot.percentileValues()) {
+            if (valueAtPercentile.percentile() == percentile) {
+                return "%.0f мс".formatted(valueAtPercentile.value(TimeUnit.MILLISECONDS));
+            }
+        }
+
+        return "н/д";
+    }
+
+    private static String describe(Meter meter) {
+        String tags = meter.getId().getTags().stream()
+            .map(Tag::getValue)
+            .collect(Collectors.joining(", "));
+
+        return tags.isEmpty()
+            ? meter.getId().getName()
+            : meter.getId().getName() + " [" + tags + "]";
+    }
+}
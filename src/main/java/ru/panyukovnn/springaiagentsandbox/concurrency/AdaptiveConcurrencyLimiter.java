@@ -0,0 +1,177 @@
+package ru.panyukovnn.springaiagentsandbox.concurrency;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.web.client.HttpStatusCodeException;
+import ru.panyukovnn.springaiagentsandbox.config.LlmConcurrencyProperties;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Адаптивный ограничитель параллельных вызовов по алгоритму AIMD.
+ * Пока ответы быстрые и успешные, лимит растёт на единицу за каждый "раунд" вызовов.
+ * При медленном ответе, ошибке или 429 лимит уменьшается в backoffRatio раз, но не чаще одного раза на раунд:
+ * вызовы, начатые до предыдущего уменьшения, лимит повторно не уменьшают.
+ * Вызовы, получившие 429, повторяются с экспоненциальной задержкой и случайным разбросом.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    /**
+     * Обработчик ошибок Spring AI не сохраняет статус ответа в исключении, а пишет его в начало сообщения: "429 - тело ответа"
+     */
+    private static final String AI_EXCEPTION_TOO_MANY_REQUESTS_PREFIX = TOO_MANY_REQUESTS + " - ";
+
+    private final String name;
+    private final LlmConcurrencyProperties.Limits limits;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+
+    public AdaptiveConcurrencyLimiter(String name, LlmConcurrencyProperties.Limits limits) {
+        this.name = name;
+        this.limits = limits;
+        this.limit = limits.getInitialLimit();
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Выполняет задачу, дождавшись свободного места в пределах текущего лимита
+     *
+     * @param task задача
+     * @return результат задачи
+     */
+    public <T> T execute(Supplier<T> task) {
+        for (int attempt = 0; ; attempt++) {
+            acquire();
+
+            long startedAt = System.nanoTime();
+            try {
+                T result = task.get();
+                onSuccess(startedAt);
+
+                return result;
+            } catch (RuntimeException e) {
+                boolean rateLimited = isRateLimited(e);
+                onFailure(startedAt, rateLimited);
+
+                if (!rateLimited || attempt >= limits.getMaxRetries()) {
+                    throw e;
+                }
+
+                sleepWithJitter(attempt);
+            }
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return limits.getMaxLimit();
+    }
+
+    private void acquire() {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Ожидание слота для вызова LLM прервано", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess(long startedAt) {
+        long latencyNanos = System.nanoTime() - startedAt;
+
+        lock.lock();
+        try {
+            inFlight--;
+
+            if (latencyNanos > limits.getLatencyThreshold().toNanos()) {
+                decrease(startedAt, "медленный ответ %s мс".formatted(latencyNanos / 1_000_000));
+            } else {
+                limit = Math.min(limits.getMaxLimit(), limit + 1 / limit);
+            }
+
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onFailure(long startedAt, boolean rateLimited) {
+        lock.lock();
+        try {
+            inFlight--;
+            decrease(startedAt, rateLimited ? "ответ 429" : "ошибка вызова");
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(long startedAt, String reason) {
+        if (startedAt < lastDecreaseNanos) {
+            return;
+        }
+
+        double previousLimit = limit;
+        limit = Math.max(limits.getMinLimit(), limit * limits.getBackoffRatio());
+        lastDecreaseNanos = System.nanoTime();
+
+        log.info("Лимит параллельных вызовов {} снижен с {} до {}: {}", name, (int) previousLimit, (int) limit, reason);
+    }
+
+    private void sleepWithJitter(int attempt) {
+        long maxDelayMs = Math.min(
+            limits.getRetryMaxDelay().toMillis(),
+            limits.getRetryBaseDelay().toMillis() << Math.min(attempt, 20));
+        long delayMs = ThreadLocalRandom.current().nextLong(maxDelayMs + 1);
+
+        log.warn("Провайдер {} ограничил частоту запросов, повтор {} через {} мс", name, attempt + 1, delayMs);
+
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Ожидание повтора вызова LLM прервано", e);
+        }
+    }
+
+    private static boolean isRateLimited(Throwable throwable) {
+        for (Throwable current = throwable; current != null; current = current.getCause()) {
+            if (current instanceof HttpStatusCodeException httpException && httpException.getStatusCode().value() == TOO_MANY_REQUESTS) {
+                return true;
+            }
+            if ((current instanceof TransientAiException || current instanceof NonTransientAiException)
+                && current.getMessage() != null
+                && current.getMessage().startsWith(AI_EXCEPTION_TOO_MANY_REQUESTS_PREFIX)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
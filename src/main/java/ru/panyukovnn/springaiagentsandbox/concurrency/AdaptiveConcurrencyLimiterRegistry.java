@@ -0,0 +1,23 @@
+package ru.panyukovnn.springaiagentsandbox.concurrency;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import ru.panyukovnn.springaiagentsandbox.config.LlmConcurrencyProperties;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хранит адаптивные ограничители вызовов, по одному на модель
+ */
+@Service
+@RequiredArgsConstructor
+public class AdaptiveConcurrencyLimiterRegistry {
+
+    private final LlmConcurrencyProperties llmConcurrencyProperties;
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    public AdaptiveConcurrencyLimiter forModel(String model) {
+        return limiters.computeIfAbsent(model, key -> new AdaptiveConcurrencyLimiter(key, llmConcurrencyProperties.forModel(key)));
+    }
+}
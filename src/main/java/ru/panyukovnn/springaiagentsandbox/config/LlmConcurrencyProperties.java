@@ -0,0 +1,50 @@
+package ru.panyukovnn.springaiagentsandbox.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Настройки адаптивного ограничения параллельных вызовов LLM, задаются отдельно для каждой модели
+ */
+@Data
+@ConfigurationProperties(prefix = "spring-ai-agent-sandbox.llm-concurrency")
+public class LlmConcurrencyProperties {
+
+    /**
+     * Имя модели -> ограничения. Для моделей, которых нет в списке, используются значения по умолчанию
+     */
+    private Map<String, Limits> models = new HashMap<>();
+
+    public Limits forModel(String model) {
+        return models.getOrDefault(model, new Limits());
+    }
+
+    @Data
+    public static class Limits {
+
+        /**
+         * Начальное количество одновременных вызовов
+         */
+        private int initialLimit = 5;
+        private int minLimit = 1;
+        private int maxLimit = 32;
+        /**
+         * Ответ дольше этого порога считается признаком перегрузки провайдера
+         */
+        private Duration latencyThreshold = Duration.ofSeconds(120);
+        /**
+         * Во сколько раз уменьшается лимит при перегрузке или ошибке
+         */
+        private double backoffRatio = 0.5;
+        /**
+         * Количество повторов вызова после ответа 429
+         */
+        private int maxRetries = 5;
+        private Duration retryBaseDelay = Duration.ofSeconds(1);
+        private Duration retryMaxDelay = Duration.ofSeconds(60);
+    }
+}
@@ -1,12 +1,27 @@
 package ru.panyukovnn.springaiagentsandbox.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.ChatModelCallAdvisor;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
 import org.springframework.ai.tool.execution.DefaultToolExecutionExceptionProcessor;
 import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+import ru.panyukovnn.springaiagentsandbox.advisor.LlmResponseCacheAdvisor;
+import ru.panyukovnn.springaiagentsandbox.embedding.CachingEmbeddingModel;
+import ru.panyukovnn.springaiagentsandbox.embedding.MappedEmbeddingStorage;
+import ru.panyukovnn.springaiagentsandbox.metrics.LlmMetricsAdvisor;
+
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
 
 @Configuration
 public class SandboxConfig {
@@ -17,13 +32,54 @@ public class SandboxConfig {
     }
 
     @Bean
-    public ChatClient chatClient(ChatModel chatModel) {
+    public ChatClient chatClient(ChatModel chatModel, LlmResponseCacheAdvisor llmResponseCacheAdvisor, LlmMetricsAdvisor llmMetricsAdvisor) {
         return ChatClient.builder(chatModel)
             .defaultAdvisors(
+                llmResponseCacheAdvisor,
+                llmMetricsAdvisor,
                 ChatModelCallAdvisor.builder()
                     .chatModel(chatModel)
                     .build()
             )
             .build();
     }
+
+    /**
+     * Оборачивает embedding модель дисковым кэшем, чтобы одинаковые чанки не эмбеддились повторно
+     */
+    @Bean
+    @Primary
+    public CachingEmbeddingModel cachingEmbeddingModel(OllamaEmbeddingModel ollamaEmbeddingModel,
+                                                       @Value("${spring.ai.ollama.embedding.model}") String embeddingModelName,
+                                                       @Value("${spring-ai-agent-sandbox.embedding-cache.dir}") Path cacheDir,
+                                                       @Value("${spring-ai-agent-sandbox.embedding-cache.max-size}") DataSize maxSize,
+                                                       MeterRegistry meterRegistry) {
+        MappedEmbeddingStorage storage = new MappedEmbeddingStorage(
+            cacheDir.resolve(embeddingModelName.replaceAll("[^a-zA-Z0-9._-]", "_") + ".bin"),
+            maxSize.toBytes());
+
+        return new CachingEmbeddingModel(ollamaEmbeddingModel, embeddingModelName, storage, meterRegistry);
+    }
+
+    /**
+     * Клиент Tavily поверх JDK HttpClient: соединения переиспользуются между запросами, поэтому серия поисков
+     * не платит за TLS рукопожатие на каждый запрос. Построен из общего RestClient.Builder, чтобы запросы попадали в http.client.requests
+     */
+    @Bean
+    public RestClient tavilyRestClient(RestClient.Builder restClientBuilder,
+                                       @Value("${spring-ai-agent-sandbox.integration.tavily.base-url}") String baseUrl,
+                                       @Value("${spring-ai-agent-sandbox.integration.tavily.connect-timeout}") Duration connectTimeout,
+                                       @Value("${spring-ai-agent-sandbox.integration.tavily.read-timeout}") Duration readTimeout) {
+        HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(connectTimeout)
+            .build();
+
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(readTimeout);
+
+        return restClientBuilder
+            .baseUrl(baseUrl)
+            .requestFactory(requestFactory)
+            .build();
+    }
 }
@@ -0,0 +1,43 @@
+package ru.panyukovnn.springaiagentsandbox.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Настройки сжатия результатов инструментов перед возвратом в контекст модели
+ */
+@Data
+@ConfigurationProperties(prefix = "spring-ai-agent-sandbox.tool-results")
+public class ToolResultProperties {
+
+    /**
+     * Бюджет токенов результата для инструментов, которых нет в budgets
+     */
+    private int defaultBudget = 4000;
+    /**
+     * Имя инструмента -> бюджет токенов результата
+     */
+    private Map<String, Integer> budgets = new HashMap<>();
+    /**
+     * Поля json, которые не нужны модели и удаляются из результатов на любой глубине
+     */
+    private List<String> stripFields = List.of();
+    /**
+     * Каталог, в который сохраняются полные результаты, не поместившиеся в бюджет
+     */
+    private Path storeDir;
+    /**
+     * Сохранённые результаты старше удаляются при запуске
+     */
+    private Duration storeTtl = Duration.ofDays(1);
+
+    public int budgetFor(String toolName) {
+        return budgets.getOrDefault(toolName, defaultBudget);
+    }
+}
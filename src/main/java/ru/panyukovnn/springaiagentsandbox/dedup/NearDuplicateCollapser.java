@@ -0,0 +1,298 @@
+package ru.panyukovnn.springaiagentsandbox.dedup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Схлопывает почти одинаковые сообщения (пересланные посты, спам ботов, повторяющиеся объявления) в одно.
+ * Для текста считается 64-битный SimHash по символьным шинглам, сообщения считаются дубликатами,
+ * если их отпечатки отличаются не больше чем в {@value #MAX_HAMMING_DISTANCE} битах.
+ * Отпечаток делится на {@value #BANDS} полосы по 16 бит: у таких отпечатков хотя бы одна полоса совпадает,
+ * поэтому кандидаты ищутся по хеш-таблицам полос, а не перебором, и обработка занимает линейное время.
+ * Короткие сообщения не схлопываются: одинаковые «да» и «+» в разных местах переписки несут разный смысл.
+ */
+@Slf4j
+@Component
+public class NearDuplicateCollapser {
+
+    private static final int MAX_HAMMING_DISTANCE = 3;
+    private static final int BANDS = MAX_HAMMING_DISTANCE + 1;
+    private static final int BAND_BITS = Long.SIZE / BANDS;
+    private static final long BAND_MASK = (1L << BAND_BITS) - 1;
+    /**
+     * Ограничение количества сравнений в одной корзине полосы, чтобы вырожденные корзины не делали обработку квадратичной
+     */
+    private static final int MAX_BUCKET_CANDIDATES = 32;
+    private static final int SHINGLE_LENGTH = 5;
+    private static final long LANE_LOW_BITS = 0x0101010101010101L;
+    private static final int MAX_LANE_COUNT = 0xFF;
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    @Value("${spring-ai-agent-sandbox.dedup.enabled}")
+    private boolean enabled;
+    @Value("${spring-ai-agent-sandbox.dedup.min-text-length}")
+    private int minTextLength;
+
+    /**
+     * Оставляет первое сообщение из каждой группы почти одинаковых, в repeatCount записывается размер группы
+     *
+     * @param messages сообщения в хронологическом порядке
+     * @return сообщения без дубликатов в исходном порядке
+     */
+    public List<TgMessageDto> collapse(List<TgMessageDto> messages) {
+        if (!enabled) {
+            return messages;
+        }
+
+        Fingerprints fingerprints = new Fingerprints();
+        List<TgMessageDto> representatives = new ArrayList<>(messages.size());
+        long removedTokens = 0;
+
+        for (TgMessageDto message : messages) {
+            TgMessageDto representative = fingerprints.findOrRegister(message);
+
+            if (representative == null) {
+                representatives.add(message);
+            } else {
+                representative.setRepeatCount(representative.getRepeatCount() == null ? 2 : representative.getRepeatCount() + 1);
+                removedTokens += tokenCountEstimator.estimate(message.getText());
+            }
+        }
+
+        logCollapsed(messages.size() - representatives.size(), removedTokens);
+
+        return representatives;
+    }
+
+    /**
+     * Вариант для потокового разбиения на фрагменты: повторы ищутся только среди сообщений текущего фрагмента,
+     * поэтому количество повторов попадает во фрагмент вместе с первым сообщением группы.
+     * Повтор сообщения из уже переданного дальше фрагмента становится первым сообщением группы в новом фрагменте.
+     *
+     * @return область поиска повторов, очищаемая при переходе к следующему фрагменту
+     */
+    public FragmentScope openFragmentScope() {
+        return new FragmentScope();
+    }
+
+    private void logCollapsed(int removedMessages, long removedTokens) {
+        log.info("Схлопнуто почти одинаковых сообщений: {}, удалено токенов: {}", removedMessages, removedTokens);
+    }
+
+    /**
+     * 64-битный SimHash текста по шинглам из {@value #SHINGLE_LENGTH} символов.
+     * Текст нормализуется: нижний регистр, цифры заменяются нулём (время, суммы и номера в шаблонных сообщениях),
+     * знаки препинания и пробелы сворачиваются в один пробел.
+     * Голоса за биты считаются побитово-параллельно: в каждом long восемь 8-битных счётчиков,
+     * которые сбрасываются в общий массив раньше, чем могут переполниться.
+     */
+    static long simHash(String text) {
+        int[] ones = new int[Long.SIZE];
+        long[] laneCounters = new long[Byte.SIZE];
+        char[] shingle = new char[SHINGLE_LENGTH];
+        int normalizedLength = 0;
+        int features = 0;
+        int pendingFeatures = 0;
+        boolean previousSeparator = true;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char normalized;
+
+            if (Character.isDigit(c)) {
+                normalized = '0';
+                previousSeparator = false;
+            } else if (Character.isLetter(c)) {
+                normalized = Character.toLowerCase(c);
+                previousSeparator = false;
+            } else if (!previousSeparator) {
+                normalized = ' ';
+                previousSeparator = true;
+            } else {
+                continue;
+            }
+
+            shingle[normalizedLength % SHINGLE_LENGTH] = normalized;
+            normalizedLength++;
+
+            if (normalizedLength < SHINGLE_LENGTH) {
+                continue;
+            }
+
+            long hash = hashShingle(shingle, normalizedLength);
+            for (int lane = 0; lane < Byte.SIZE; lane++) {
+                laneCounters[lane] += (hash >>> lane) & LANE_LOW_BITS;
+            }
+            features++;
+
+            if (++pendingFeatures == MAX_LANE_COUNT) {
+                flushLaneCounters(laneCounters, ones);
+                pendingFeatures = 0;
+            }
+        }
+        flushLaneCounters(laneCounters, ones);
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (2 * ones[bit] > features) {
+                fingerprint |= 1L << bit;
+            }
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Бит lane + 8 * byteIndex хеша учитывается в байте byteIndex счётчика lane
+     */
+    private static void flushLaneCounters(long[] laneCounters, int[] ones) {
+        for (int lane = 0; lane < Byte.SIZE; lane++) {
+            for (int byteIndex = 0; byteIndex < Long.BYTES; byteIndex++) {
+                ones[Byte.SIZE * byteIndex + lane] += (int) ((laneCounters[lane] >>> (Byte.SIZE * byteIndex)) & 0xFF);
+            }
+            laneCounters[lane] = 0;
+        }
+    }
+
+    /**
+     * FNV-1a по символам кольцевого буфера шингла с перемешиванием результата
+     */
+    private static long hashShingle(char[] shingle, int normalizedLength) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = normalizedLength - SHINGLE_LENGTH; i < normalizedLength; i++) {
+            hash ^= shingle[i % SHINGLE_LENGTH];
+            hash *= 0x100000001b3L;
+        }
+
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Повторы в пределах одного фрагмента транскрипта. Итог схлопывания выводится в лог вызовом {@link #logCollapsed()}
+     */
+    public class FragmentScope {
+
+        private Fingerprints fingerprints = new Fingerprints();
+        private int removedMessages;
+        private long removedTokens;
+
+        private FragmentScope() {
+        }
+
+        /**
+         * @return ранее встреченное в текущем фрагменте почти такое же сообщение или null, если сообщение уникально и запомнено
+         */
+        public TgMessageDto findOrRegister(TgMessageDto message) {
+            if (!enabled) {
+                return null;
+            }
+
+            TgMessageDto representative = fingerprints.findOrRegister(message);
+            if (representative != null) {
+                removedMessages++;
+                removedTokens += tokenCountEstimator.estimate(message.getText());
+            }
+
+            return representative;
+        }
+
+        /**
+         * Начать новый фрагмент: сообщения предыдущих фрагментов больше не считаются повторяемыми
+         */
+        public void startFragment() {
+            fingerprints = new Fingerprints();
+        }
+
+        public void logCollapsed() {
+            NearDuplicateCollapser.this.logCollapsed(removedMessages, removedTokens);
+        }
+    }
+
+    /**
+     * Отпечатки уже встреченных уникальных сообщений, разложенные по корзинам полос
+     */
+    private class Fingerprints {
+
+        private final List<Map<Integer, int[]>> bandBuckets = new ArrayList<>(BANDS);
+        private long[] fingerprints = new long[1024];
+        private final List<TgMessageDto> representatives = new ArrayList<>();
+
+        Fingerprints() {
+            for (int band = 0; band < BANDS; band++) {
+                bandBuckets.add(new HashMap<>());
+            }
+        }
+
+        /**
+         * @return ранее встреченное почти такое же сообщение или null, если сообщение уникально и запомнено
+         */
+        TgMessageDto findOrRegister(TgMessageDto message) {
+            String text = message.getText();
+            if (text == null || text.length() < minTextLength) {
+                return null;
+            }
+
+            long fingerprint = simHash(text);
+
+            for (int band = 0; band < BANDS; band++) {
+                int[] bucket = bandBuckets.get(band).get(bandValue(fingerprint, band));
+                if (bucket == null) {
+                    continue;
+                }
+
+                for (int i = 1; i <= bucket[0]; i++) {
+                    if (Long.bitCount(fingerprints[bucket[i]] ^ fingerprint) <= MAX_HAMMING_DISTANCE) {
+                        return representatives.get(bucket[i]);
+                    }
+                }
+            }
+
+            register(message, fingerprint);
+
+            return null;
+        }
+
+        private void register(TgMessageDto message, long fingerprint) {
+            int position = representatives.size();
+            representatives.add(message);
+
+            if (position == fingerprints.length) {
+                fingerprints = Arrays.copyOf(fingerprints, position * 2);
+            }
+            fingerprints[position] = fingerprint;
+
+            for (int band = 0; band < BANDS; band++) {
+                Map<Integer, int[]> buckets = bandBuckets.get(band);
+                // первый элемент корзины - количество занятых позиций
+                int[] bucket = buckets.computeIfAbsent(bandValue(fingerprint, band), key -> new int[MAX_BUCKET_CANDIDATES + 1]);
+
+                if (bucket[0] < MAX_BUCKET_CANDIDATES) {
+                    bucket[++bucket[0]] = position;
+                }
+            }
+        }
+
+        private static int bandValue(long fingerprint, int band) {
+            return (int) ((fingerprint >>> (band * BAND_BITS)) & BAND_MASK);
+        }
+    }
+}
@@ -22,4 +22,8 @@ public class TgMessageDto {
      */
     private String replyToText;
     private Long replyToMessageId;
+    /**
+     * Количество почти одинаковых сообщений, схлопнутых в текущее. Null - сообщение не повторялось
+     */
+    private Integer repeatCount;
 }
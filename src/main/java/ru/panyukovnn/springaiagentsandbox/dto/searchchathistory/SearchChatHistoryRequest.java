@@ -26,6 +26,9 @@ public class SearchChatHistoryRequest {
     @Schema(description = "Дата начала периода, в UTC")
     private LocalDateTime dateFrom;
 
+    @Schema(description = "Дата окончания периода (не включительно), в UTC. Если не указана - до текущего момента")
+    private LocalDateTime dateTo;
+
     @Schema(description = "Принудительно перезагрузить историю из Telegram, игнорируя кэш в БД")
     private Boolean returnFromDb = false;
 }
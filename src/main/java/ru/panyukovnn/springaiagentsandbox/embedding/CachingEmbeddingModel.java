@@ -0,0 +1,146 @@
+package ru.panyukovnn.springaiagentsandbox.embedding;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэширует эмбеддинги текстов на диске, чтобы повторно не отправлять одинаковые чанки в модель.
+ * Ключ кэша - sha-256 от имени модели и текста чанка.
+ * Обращения к модели замеряются таймером {@value #EMBEDDING_BATCH_TIMER}, попадания и промахи кэша - счётчиком {@value #EMBEDDING_TEXTS_COUNTER}.
+ */
+@RequiredArgsConstructor
+public class CachingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    public static final String EMBEDDING_BATCH_TIMER = "embedding.batch";
+    public static final String EMBEDDING_TEXTS_COUNTER = "embedding.texts";
+    public static final String EMBEDDING_TOKENS_COUNTER = "embedding.tokens";
+
+    private final EmbeddingModel delegate;
+    private final String defaultModelName;
+    private final MappedEmbeddingStorage storage;
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        String modelName = resolveModelName(request);
+
+        float[][] vectors = new float[texts.size()][];
+        List<byte[]> missedKeys = new ArrayList<>();
+        List<String> missedTexts = new ArrayList<>();
+        List<Integer> missedPositions = new ArrayList<>();
+
+        for (int i = 0; i < texts.size(); i++) {
+            byte[] key = buildKey(modelName, texts.get(i));
+            float[] cached = storage.get(key);
+
+            if (cached != null) {
+                vectors[i] = cached;
+            } else {
+                missedKeys.add(key);
+                missedTexts.add(texts.get(i));
+                missedPositions.add(i);
+            }
+        }
+
+        hits.addAndGet(texts.size() - missedTexts.size());
+        misses.addAndGet(missedTexts.size());
+        meterRegistry.counter(EMBEDDING_TEXTS_COUNTER, "model", modelName, "result", "hit").increment(texts.size() - missedTexts.size());
+        meterRegistry.counter(EMBEDDING_TEXTS_COUNTER, "model", modelName, "result", "miss").increment(missedTexts.size());
+
+        if (!missedTexts.isEmpty()) {
+            EmbeddingResponse delegateResponse = Timer.builder(EMBEDDING_BATCH_TIMER)
+                .tag("model", modelName)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(() -> delegate.call(new EmbeddingRequest(missedTexts, request.getOptions())));
+
+            Usage usage = delegateResponse.getMetadata() == null ? null : delegateResponse.getMetadata().getUsage();
+            if (usage != null && usage.getTotalTokens() != null) {
+                meterRegistry.counter(EMBEDDING_TOKENS_COUNTER, "model", modelName).increment(usage.getTotalTokens());
+            }
+
+            List<Embedding> embeddings = delegateResponse.getResults();
+
+            for (int i = 0; i < embeddings.size(); i++) {
+                float[] vector = embeddings.get(i).getOutput();
+
+                vectors[missedPositions.get(i)] = vector;
+                storage.put(missedKeys.get(i), vector);
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getSize() {
+        return storage.size();
+    }
+
+    public int getCapacity() {
+        return storage.getCapacity();
+    }
+
+    @Override
+    public void close() throws Exception {
+        storage.close();
+    }
+
+    private String resolveModelName(EmbeddingRequest request) {
+        if (request.getOptions() != null && request.getOptions().getModel() != null) {
+            return request.getOptions().getModel();
+        }
+
+        return defaultModelName;
+    }
+
+    @SneakyThrows
+    private static byte[] buildKey(String modelName, String text) {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(modelName.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+
+        return digest.digest();
+    }
+}
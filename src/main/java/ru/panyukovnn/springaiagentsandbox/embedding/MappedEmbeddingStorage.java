@@ -0,0 +1,230 @@
+package ru.panyukovnn.springaiagentsandbox.embedding;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Хранилище эмбеддингов в memory-mapped файле.
+ * Файл разбит на слоты фиксированного размера: 32 байта ключа и массив float вектора.
+ * Количество слотов ограничено размером файла, при переполнении вытесняется давно не использованный вектор.
+ * Ключ слота записывается последним, поэтому после аварийного завершения ключ не указывает на недописанный или чужой вектор.
+ * Если max-size изменился, при открытии файл расширяется или обрезается до новой ёмкости.
+ */
+@Slf4j
+public class MappedEmbeddingStorage implements AutoCloseable {
+
+    private static final int MAGIC = 0x454D4231;
+    private static final int HEADER_SIZE = Integer.BYTES * 3;
+    private static final int KEY_SIZE = 32;
+    private static final byte[] EMPTY_KEY = new byte[KEY_SIZE];
+
+    private final Path file;
+    private final long maxSizeBytes;
+    /**
+     * Ключ -> номер слота, порядок доступа используется для вытеснения
+     */
+    private final LinkedHashMap<String, Integer> slots = new LinkedHashMap<>(16, 0.75f, true);
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int dimensions;
+    private int capacity;
+
+    public MappedEmbeddingStorage(Path file, long maxSizeBytes) {
+        this.file = file;
+        this.maxSizeBytes = maxSizeBytes;
+
+        open();
+    }
+
+    /**
+     * @param key sha-256 ключ
+     * @return вектор из хранилища или null, если его нет
+     */
+    public synchronized float[] get(byte[] key) {
+        if (buffer == null) {
+            return null;
+        }
+
+        Integer slot = slots.get(HexFormat.of().formatHex(key));
+        if (slot == null) {
+            return null;
+        }
+
+        float[] vector = new float[dimensions];
+        buffer.slice(slotOffset(slot) + KEY_SIZE, dimensions * Float.BYTES)
+            .asFloatBuffer()
+            .get(vector);
+
+        return vector;
+    }
+
+    /**
+     * Сохраняет вектор, при необходимости вытесняя давно не использованный
+     *
+     * @param key    sha-256 ключ
+     * @param vector вектор
+     */
+    public synchronized void put(byte[] key, float[] vector) {
+        if (buffer == null || dimensions != vector.length) {
+            create(vector.length);
+        }
+
+        String hexKey = HexFormat.of().formatHex(key);
+        if (slots.containsKey(hexKey)) {
+            return;
+        }
+
+        Integer slot = freeSlots.poll();
+        if (slot == null) {
+            Map.Entry<String, Integer> eldest = slots.entrySet().iterator().next();
+            slot = eldest.getValue();
+            slots.remove(eldest.getKey());
+        }
+
+        // ключ вытесненного вектора стирается до записи нового вектора, а новый ключ пишется после него
+        int offset = slotOffset(slot);
+        buffer.put(offset, EMPTY_KEY);
+        buffer.slice(offset + KEY_SIZE, dimensions * Float.BYTES)
+            .asFloatBuffer()
+            .put(vector);
+        buffer.put(offset, key);
+
+        slots.put(hexKey, slot);
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void close() throws Exception {
+        if (buffer != null) {
+            buffer.force();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @SneakyThrows
+    private void open() {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (FileChannel headerChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            headerChannel.read(header, 0);
+            header.flip();
+
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                log.warn("Файл кэша эмбеддингов повреждён и будет пересоздан: {}", file);
+
+                return;
+            }
+
+            dimensions = header.getInt();
+            int storedCapacity = header.getInt();
+            capacity = capacityFor(dimensions);
+
+            if (capacity != storedCapacity) {
+                log.info("Размер кэша эмбеддингов изменился, ёмкость меняется с {} на {} векторов: {}", storedCapacity, capacity, file);
+            }
+        }
+
+        map();
+        buffer.putInt(Integer.BYTES * 2, capacity);
+
+        byte[] key = new byte[KEY_SIZE];
+        for (int slot = 0; slot < capacity; slot++) {
+            buffer.get(slotOffset(slot), key);
+
+            if (Arrays.equals(key, EMPTY_KEY)) {
+                freeSlots.add(slot);
+            } else {
+                slots.put(HexFormat.of().formatHex(key), slot);
+            }
+        }
+
+        log.info("Загружен кэш эмбеддингов: {}. Векторов: {}, ёмкость: {}", file, slots.size(), capacity);
+    }
+
+    @SneakyThrows
+    private void create(int vectorDimensions) {
+        if (channel != null) {
+            log.warn("Размерность эмбеддингов изменилась с {} на {}, кэш будет очищен: {}", dimensions, vectorDimensions, file);
+
+            channel.close();
+        }
+
+        dimensions = vectorDimensions;
+        capacity = capacityFor(dimensions);
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.deleteIfExists(file);
+
+        map();
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(Integer.BYTES, dimensions);
+        buffer.putInt(Integer.BYTES * 2, capacity);
+
+        slots.clear();
+        freeSlots.clear();
+        for (int slot = 0; slot < capacity; slot++) {
+            freeSlots.add(slot);
+        }
+    }
+
+    private int capacityFor(int vectorDimensions) {
+        int slotSize = KEY_SIZE + vectorDimensions * Float.BYTES;
+        int slotCount = (int) Math.min((maxSizeBytes - HEADER_SIZE) / slotSize, (Integer.MAX_VALUE - HEADER_SIZE) / slotSize);
+
+        if (slotCount <= 0) {
+            throw new IllegalStateException("Размер кэша эмбеддингов слишком мал: %s байт".formatted(maxSizeBytes));
+        }
+
+        return slotCount;
+    }
+
+    /**
+     * Отображает файл в память на текущую ёмкость. Файл большего размера обрезается: слоты за пределами ёмкости отбрасываются
+     */
+    @SneakyThrows
+    private void map() {
+        long mappedSize = HEADER_SIZE + (long) capacity * recordSize();
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > mappedSize) {
+            channel.truncate(mappedSize);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+    }
+
+    private int recordSize() {
+        return KEY_SIZE + dimensions * Float.BYTES;
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + slot * recordSize();
+    }
+}
@@ -0,0 +1,73 @@
+package ru.panyukovnn.springaiagentsandbox.history;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+/**
+ * Формат ответа с историей чата. Двоичные форматы передают те же DTO, что и json, но компактнее и быстрее разбираются
+ */
+public enum ChatHistoryFormat {
+
+    JSON(MediaType.APPLICATION_JSON),
+    SMILE(MediaType.parseMediaType("application/x-jackson-smile")),
+    CBOR(MediaType.parseMediaType("application/cbor"));
+
+    private final MediaType mediaType;
+
+    ChatHistoryFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * @return значение заголовка Accept: предпочитаемый формат и json с меньшим приоритетом,
+     * чтобы сервер без поддержки двоичного формата ответил json
+     */
+    public String acceptHeader() {
+        return this == JSON
+            ? mediaType.toString()
+            : mediaType + ", " + MediaType.APPLICATION_JSON + ";q=0.5";
+    }
+
+    /**
+     * @param jsonMapper настроенный json маппер приложения
+     * @return маппер с теми же модулями и настройками для этого формата
+     */
+    public ObjectMapper mapper(ObjectMapper jsonMapper) {
+        return switch (this) {
+            case JSON -> jsonMapper;
+            case SMILE -> jsonMapper.copyWith(new SmileFactory());
+            case CBOR -> jsonMapper.copyWith(new CBORFactory());
+        };
+    }
+
+    /**
+     * @param contentType значение заголовка Content-Type ответа
+     * @return формат ответа, json - если заголовок отсутствует или не распознан
+     */
+    public static ChatHistoryFormat fromContentType(String contentType) {
+        if (contentType == null || contentType.isBlank()) {
+            return JSON;
+        }
+
+        try {
+            MediaType responseType = MediaType.parseMediaType(contentType);
+
+            for (ChatHistoryFormat format : values()) {
+                if (format.mediaType.isCompatibleWith(responseType)) {
+                    return format;
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return JSON;
+        }
+
+        return JSON;
+    }
+}
@@ -0,0 +1,209 @@
+package ru.panyukovnn.springaiagentsandbox.history;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Разбирает ответ tg-chats-collector с историей чата по одному сообщению с помощью потокового API Jackson,
+ * не материализуя весь ответ в памяти. Формат (json, smile, cbor) определяется по Content-Type,
+ * сжатый gzip ответ распознаётся по сигнатуре, даже если HTTP клиент не распаковал его сам.
+ */
+@Slf4j
+@Component
+public class ChatHistoryResponseReader {
+
+    private static final String BODY_FIELD = "body";
+    private static final String MESSAGES_FIELD = "messages";
+    private static final String ERROR_MESSAGE_FIELD = "errorMessage";
+    private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+    private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<ChatHistoryFormat, ObjectMapper> mappers = new EnumMap<>(ChatHistoryFormat.class);
+
+    public ChatHistoryResponseReader(ObjectMapper objectMapper) {
+        for (ChatHistoryFormat format : ChatHistoryFormat.values()) {
+            mappers.put(format, format.mapper(objectMapper));
+        }
+    }
+
+    /**
+     * Возвращает поток сообщений из тела ответа. Закрытие потока закрывает тело ответа
+     *
+     * @param body        тело ответа
+     * @param contentType значение заголовка Content-Type ответа
+     * @return поток сообщений в том порядке, в котором их вернул tg-chats-collector
+     */
+    public Stream<TgMessageDto> read(InputStream body, String contentType) throws IOException {
+        ChatHistoryFormat format = ChatHistoryFormat.fromContentType(contentType);
+        ObjectMapper mapper = mappers.get(format);
+
+        CountingInputStream transferred = new CountingInputStream(body);
+        BufferedInputStream buffered = new BufferedInputStream(transferred, BUFFER_SIZE);
+        boolean gzip = isGzip(buffered);
+        InputStream decoded = gzip ? new GZIPInputStream(buffered, BUFFER_SIZE) : buffered;
+
+        JsonParser parser = mapper.getFactory().createParser(decoded);
+
+        try {
+            if (!moveToMessages(parser)) {
+                parser.close();
+
+                return Stream.empty();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(parser);
+
+            throw e;
+        }
+
+        return StreamSupport.stream(new MessagesSpliterator(parser, mapper), false)
+            .onClose(() -> {
+                closeQuietly(parser);
+                log.info("Получена история чата в формате {}{}, прочитано байт: {}", format, gzip ? " (gzip)" : "", transferred.count);
+            });
+    }
+
+    private static boolean isGzip(BufferedInputStream buffered) throws IOException {
+        buffered.mark(2);
+        int firstByte = buffered.read();
+        int secondByte = buffered.read();
+        buffered.reset();
+
+        return firstByte == GZIP_MAGIC_FIRST_BYTE && secondByte == GZIP_MAGIC_SECOND_BYTE;
+    }
+
+    /**
+     * Перемещает парсер к началу массива body.messages
+     *
+     * @return false, если в ответе нет сообщений
+     */
+    private static boolean moveToMessages(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalStateException("Некорректный ответ tg-chats-collector: ожидался объект");
+        }
+
+        String errorMessage = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            JsonToken valueToken = parser.nextToken();
+
+            if (BODY_FIELD.equals(fieldName) && valueToken == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String bodyFieldName = parser.currentName();
+                    JsonToken bodyValueToken = parser.nextToken();
+
+                    if (MESSAGES_FIELD.equals(bodyFieldName) && bodyValueToken == JsonToken.START_ARRAY) {
+                        return true;
+                    }
+
+                    parser.skipChildren();
+                }
+            } else if (ERROR_MESSAGE_FIELD.equals(fieldName) && valueToken == JsonToken.VALUE_STRING) {
+                errorMessage = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (errorMessage != null) {
+            throw new IllegalStateException("tg-chats-collector вернул ошибку при загрузке истории чата: %s".formatted(errorMessage));
+        }
+
+        return false;
+    }
+
+    private static void closeQuietly(JsonParser parser) {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть парсер истории чата", e);
+        }
+    }
+
+    private static class MessagesSpliterator extends Spliterators.AbstractSpliterator<TgMessageDto> {
+
+        private final JsonParser parser;
+        private final ObjectMapper mapper;
+
+        MessagesSpliterator(JsonParser parser, ObjectMapper mapper) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.parser = parser;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super TgMessageDto> action) {
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return false;
+                }
+
+                action.accept(mapper.readValue(parser, TgMessageDto.class));
+
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Считает байты, полученные по сети до распаковки
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count++;
+            }
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ru.panyukovnn.springaiagentsandbox.history;
+
+import feign.Response;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import ru.panyukovnn.springaiagentsandbox.client.feign.TgChatsCollectorClient;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+import ru.panyukovnn.springaiagentsandbox.dto.common.CommonRequest;
+import ru.panyukovnn.springaiagentsandbox.dto.searchchathistory.SearchChatHistoryRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+/**
+ * Загружает историю чата из tg-chats-collector и разбирает сообщения по одному с помощью потокового API Jackson,
+ * не материализуя весь ответ в памяти. Формат ответа и сжатие согласуются заголовками Accept и Accept-Encoding
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatHistoryStreamLoader {
+
+    private final TgChatsCollectorClient tgChatsCollectorClient;
+    private final ChatHistoryResponseReader chatHistoryResponseReader;
+
+    /**
+     * Предпочитаемый формат ответа, сервер без его поддержки отвечает json
+     */
+    @Value("${spring-ai-agent-sandbox.integration.tg-chats-collector.transport.format}")
+    private ChatHistoryFormat format;
+    @Value("${spring-ai-agent-sandbox.integration.tg-chats-collector.transport.gzip}")
+    private boolean gzip;
+
+    /**
+     * Возвращает поток сообщений чата. Поток держит открытое соединение, его необходимо закрыть
+     *
+     * Признак returnFromDb не передаётся: по контракту tg-chats-collector он принудительно перезагружает историю из Telegram
+     * в обход кэша в БД, а история нужна из кэша
+     *
+     * @param chatId   идентификатор чата
+     * @param topicId  идентификатор топика
+     * @param dateFrom дата начала периода, в UTC
+     * @param dateTo   дата окончания периода (не включительно), в UTC, null - до текущего момента
+     * @return поток сообщений в том порядке, в котором их вернул tg-chats-collector
+     */
+    public Stream<TgMessageDto> stream(Long chatId, Long topicId, LocalDateTime dateFrom, LocalDateTime dateTo) {
+        log.info("Вызываю потоковую загрузку сообщений из телеграм чата: {}. Топик: {}. Период: {} - {}", chatId, topicId, dateFrom, dateTo);
+
+        SearchChatHistoryRequest searchChatHistoryRequest = SearchChatHistoryRequest.builder()
+            .chatId(chatId)
+            .topicId(topicId)
+            .dateFrom(dateFrom)
+            .dateTo(dateTo)
+            .build();
+
+        CommonRequest<SearchChatHistoryRequest> commonRequest = CommonRequest.<SearchChatHistoryRequest>builder()
+            .body(searchChatHistoryRequest)
+            .build();
+
+        Response response = tgChatsCollectorClient.postSearchChatHistoryRaw(format.acceptHeader(), gzip ? "gzip" : "identity", commonRequest);
+
+        try {
+            if (response.status() != 200 || response.body() == null) {
+                throw new IllegalStateException("tg-chats-collector вернул ошибку при загрузке истории чата. Статус: %s. Ответ: %s"
+                    .formatted(response.status(), readBody(response)));
+            }
+
+            Stream<TgMessageDto> messages = chatHistoryResponseReader.read(response.body().asInputStream(), header(response, HttpHeaders.CONTENT_TYPE));
+
+            return messages.onClose(response::close);
+        } catch (IOException e) {
+            response.close();
+
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            response.close();
+
+            throw e;
+        }
+    }
+
+    private static String readBody(Response response) {
+        if (response.body() == null) {
+            return "";
+        }
+
+        try {
+            return new String(response.body().asInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static String header(Response response, String name) {
+        return response.headers().entrySet().stream()
+            .filter(header -> header.getKey().equalsIgnoreCase(name))
+            .flatMap(header -> header.getValue().stream())
+            .findFirst()
+            .orElse(null);
+    }
+}
@@ -0,0 +1,29 @@
+package ru.panyukovnn.springaiagentsandbox.history;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Служебная информация о локальном хранилище сообщений чата, хранится рядом с сегментами
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatMessageStoreMeta {
+
+    private Long chatId;
+    private Long topicId;
+    /**
+     * Начало периода, за который история загружена полностью
+     */
+    private LocalDateTime syncedFrom;
+    /**
+     * Конец периода, за который история загружена полностью
+     */
+    private LocalDateTime syncedTo;
+}
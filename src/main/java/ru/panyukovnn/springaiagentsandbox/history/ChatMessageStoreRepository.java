@@ -0,0 +1,71 @@
+package ru.panyukovnn.springaiagentsandbox.history;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Открывает локальные хранилища сообщений чатов и держит их открытыми до остановки приложения
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatMessageStoreRepository {
+
+    private final ObjectMapper objectMapper;
+    private final Map<String, SegmentedMessageStore> stores = new ConcurrentHashMap<>();
+
+    @Value("${spring-ai-agent-sandbox.history-store.dir}")
+    private Path storeDir;
+    @Value("${spring-ai-agent-sandbox.history-store.segment-size}")
+    private DataSize segmentSize;
+
+    /**
+     * Возвращает хранилище сообщений чата, открывая его при первом обращении
+     *
+     * @param chatId  идентификатор чата
+     * @param topicId идентификатор топика
+     * @return хранилище сообщений чата
+     */
+    public SegmentedMessageStore getOrOpen(Long chatId, Long topicId) {
+        return stores.computeIfAbsent(buildKey(chatId, topicId), key -> {
+            ChatMessageStoreMeta defaultMeta = ChatMessageStoreMeta.builder()
+                .chatId(chatId)
+                .topicId(topicId)
+                .build();
+
+            try {
+                return SegmentedMessageStore.open(storeDir.resolve(key), defaultMeta, segmentSize.toBytes(), objectMapper);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void closeStores() {
+        stores.values().forEach(store -> {
+            try {
+                store.close();
+            } catch (IOException e) {
+                log.warn("Не удалось закрыть локальное хранилище сообщений", e);
+            }
+        });
+    }
+
+    private static String buildKey(Long chatId, Long topicId) {
+        return topicId == null
+            ? String.valueOf(chatId)
+            : chatId + "_" + topicId;
+    }
+}
@@ -0,0 +1,252 @@
+package ru.panyukovnn.springaiagentsandbox.history;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Отдаёт историю чата из локального хранилища, догружая из tg-chats-collector только недостающие периоды:
+ * более ранние, чем уже загруженные, и сообщения новее последнего сохранённого.
+ * Даты периодов в UTC, как и в tg-chats-collector.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LocalChatHistoryService {
+
+    private static final int APPEND_BATCH_SIZE = 1000;
+
+    private final ChatMessageStoreRepository chatMessageStoreRepository;
+    private final ShardedChatHistoryFetcher shardedChatHistoryFetcher;
+
+    /**
+     * Возвращает сообщения чата, начиная с указанной даты, синхронизируя локальное хранилище по ходу чтения.
+     * Недостающий более ранний период отдаётся потребителю по мере загрузки из tg-chats-collector и одновременно
+     * дописывается в хранилище, поэтому обработка первых сообщений не ждёт окончания загрузки.
+     * Период считается синхронизированным, только если поток прочитан до конца.
+     *
+     * @param chatId   идентификатор чата
+     * @param topicId  идентификатор топика
+     * @param dateFrom дата начала периода
+     * @return сообщения в порядке возрастания messageId, поток необходимо закрыть
+     */
+    @SneakyThrows
+    public Stream<TgMessageDto> history(Long chatId, Long topicId, LocalDateTime dateFrom) {
+        SegmentedMessageStore store = chatMessageStoreRepository.getOrOpen(chatId, topicId);
+        ChatMessageStoreMeta meta = store.getMeta();
+
+        if (meta.getSyncedFrom() != null && !dateFrom.isBefore(meta.getSyncedFrom())) {
+            synchronized (store) {
+                syncNewMessages(store, chatId, topicId);
+            }
+
+            return store.read(dateFrom, null);
+        }
+
+        boolean coldStore = meta.getSyncedFrom() == null;
+        LocalDateTime backfillTo = coldStore ? LocalDateTime.now(ZoneOffset.UTC) : meta.getSyncedFrom();
+
+        Stream<TgMessageDto> backfill = fetchAndAppendWhileReading(store, chatId, topicId, dateFrom, backfillTo,
+            () -> markBackfilled(store, chatId, dateFrom, backfillTo));
+
+        if (coldStore) {
+            return backfill;
+        }
+
+        Supplier<Stream<TgMessageDto>> storedAfterBackfill = () -> {
+            synchronized (store) {
+                syncNewMessages(store, chatId, topicId);
+            }
+
+            return store.read(backfillTo, null);
+        };
+
+        return withIncreasingMessageIds(Stream.concat(backfill, Stream.of(storedAfterBackfill).flatMap(Supplier::get)));
+    }
+
+    /**
+     * Догружает в локальное хранилище недостающие сообщения чата, начиная с указанной даты
+     *
+     * @param chatId   идентификатор чата
+     * @param topicId  идентификатор топика
+     * @param dateFrom дата начала периода
+     */
+    @SneakyThrows
+    public void sync(Long chatId, Long topicId, LocalDateTime dateFrom) {
+        SegmentedMessageStore store = chatMessageStoreRepository.getOrOpen(chatId, topicId);
+
+        synchronized (store) {
+            sync(store, chatId, topicId, dateFrom);
+        }
+    }
+
+    /**
+     * Возвращает сообщения чата из локального хранилища без обращения к tg-chats-collector.
+     * Используется, когда хранилище уже синхронизировано за нужный период
+     *
+     * @param chatId   идентификатор чата
+     * @param topicId  идентификатор топика
+     * @param dateFrom дата начала периода
+     * @return сообщения в порядке возрастания messageId
+     */
+    public Stream<TgMessageDto> read(Long chatId, Long topicId, LocalDateTime dateFrom) {
+        return chatMessageStoreRepository.getOrOpen(chatId, topicId).read(dateFrom, null);
+    }
+
+    private void sync(SegmentedMessageStore store, Long chatId, Long topicId, LocalDateTime dateFrom) throws IOException {
+        ChatMessageStoreMeta meta = store.getMeta();
+
+        if (meta.getSyncedFrom() == null || dateFrom.isBefore(meta.getSyncedFrom())) {
+            boolean coldStore = meta.getSyncedFrom() == null;
+            LocalDateTime backfillTo = coldStore ? LocalDateTime.now(ZoneOffset.UTC) : meta.getSyncedFrom();
+
+            try (Stream<TgMessageDto> backfill = fetchAndAppendWhileReading(store, chatId, topicId, dateFrom, backfillTo,
+                () -> markBackfilled(store, chatId, dateFrom, backfillTo))) {
+                backfill.count();
+            }
+
+            // загрузка холодного хранилища только что закончилась на текущем моменте, новых сообщений догружать не нужно
+            if (coldStore) {
+                return;
+            }
+        }
+
+        syncNewMessages(store, chatId, topicId);
+    }
+
+    /**
+     * Догружает сообщения новее последнего сохранённого. Вызывается под блокировкой хранилища
+     */
+    @SneakyThrows
+    private void syncNewMessages(SegmentedMessageStore store, Long chatId, Long topicId) {
+        ChatMessageStoreMeta meta = store.getMeta();
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+
+        LocalDateTime highWaterMark = store.lastMessageDateTime();
+        if (highWaterMark == null || highWaterMark.isAfter(meta.getSyncedTo())) {
+            highWaterMark = meta.getSyncedTo();
+        }
+
+        int appended;
+        try (Stream<TgMessageDto> messages = fetchAndAppendWhileReading(store, chatId, topicId, highWaterMark, now, () -> { })) {
+            appended = (int) messages.count();
+        }
+        log.info("Локальная история чата {} обновлена начиная с {}, загружено сообщений: {}, всего: {}", chatId, highWaterMark, appended, store.size());
+
+        meta.setSyncedTo(now);
+        store.saveMeta();
+    }
+
+    @SneakyThrows
+    private void markBackfilled(SegmentedMessageStore store, Long chatId, LocalDateTime dateFrom, LocalDateTime backfillTo) {
+        synchronized (store) {
+            ChatMessageStoreMeta meta = store.getMeta();
+
+            if (meta.getSyncedFrom() == null || dateFrom.isBefore(meta.getSyncedFrom())) {
+                meta.setSyncedFrom(dateFrom);
+            }
+            if (meta.getSyncedTo() == null) {
+                meta.setSyncedTo(backfillTo);
+            }
+            store.saveMeta();
+        }
+
+        log.info("Локальная история чата {} дополнена за период {} - {}, всего сообщений: {}", chatId, dateFrom, backfillTo, store.size());
+    }
+
+    /**
+     * Загружает сообщения из tg-chats-collector и отдаёт их потребителю, дописывая в хранилище пачками по мере чтения.
+     * Хранилище пропускает уже сохранённые сообщения, поэтому одновременная загрузка одного периода не создаёт дублей
+     *
+     * @param onCompleted вызывается, когда загруженные сообщения прочитаны до конца и сохранены
+     */
+    private Stream<TgMessageDto> fetchAndAppendWhileReading(SegmentedMessageStore store,
+                                                            Long chatId,
+                                                            Long topicId,
+                                                            LocalDateTime dateFrom,
+                                                            LocalDateTime dateTo,
+                                                            Runnable onCompleted) {
+        Stream<TgMessageDto> fetched = shardedChatHistoryFetcher.fetch(chatId, topicId, dateFrom, dateTo);
+        Iterator<TgMessageDto> fetchedIterator = fetched.iterator();
+
+        Iterator<TgMessageDto> appendingIterator = new Iterator<>() {
+
+            private final List<TgMessageDto> batch = new ArrayList<>(APPEND_BATCH_SIZE);
+            private boolean completed;
+
+            @Override
+            public boolean hasNext() {
+                if (fetchedIterator.hasNext()) {
+                    return true;
+                }
+
+                if (!completed) {
+                    completed = true;
+                    appendBatch();
+                    onCompleted.run();
+                }
+
+                return false;
+            }
+
+            @Override
+            public TgMessageDto next() {
+                TgMessageDto message = fetchedIterator.next();
+
+                batch.add(message);
+                if (batch.size() == APPEND_BATCH_SIZE) {
+                    appendBatch();
+                }
+
+                return message;
+            }
+
+            private void appendBatch() {
+                try {
+                    store.append(batch);
+                    batch.clear();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(appendingIterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(fetched::close);
+    }
+
+    /**
+     * Отбрасывает сообщения, messageId которых не больше уже отданного: загруженный период и сохранённые сообщения пересекаются по границе
+     */
+    private static Stream<TgMessageDto> withIncreasingMessageIds(Stream<TgMessageDto> messages) {
+        long[] lastMessageId = {Long.MIN_VALUE};
+
+        return messages.filter(message -> {
+            if (message.getMessageId() == null) {
+                return true;
+            }
+            if (message.getMessageId() <= lastMessageId[0]) {
+                return false;
+            }
+
+            lastMessageId[0] = message.getMessageId();
+
+            return true;
+        });
+    }
+}
@@ -0,0 +1,469 @@
+package ru.panyukovnn.springaiagentsandbox.history;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Локальное хранилище сообщений одного чата: файлы-сегменты, в которые сообщения только дописываются.
+ * Запись сегмента: [messageId: long][дата в секундах UTC: long][длина: int][json сообщения].
+ * Индекс по messageId и дате держится в памяти в примитивных массивах и восстанавливается при открытии
+ * по заголовкам записей, сами сообщения читаются из отображённых в память сегментов только при обращении.
+ * Поиск по дате опирается на то, что в телеграм messageId внутри чата растут вместе с датой.
+ */
+@Slf4j
+public class SegmentedMessageStore implements Closeable {
+
+    private static final int RECORD_HEADER_BYTES = Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String META_FILE = "meta.json";
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final ObjectMapper objectMapper;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    @Getter
+    private ChatMessageStoreMeta meta;
+    private volatile MessageIndex index = MessageIndex.EMPTY;
+    private FileChannel activeChannel;
+
+    private SegmentedMessageStore(Path dir, long maxSegmentBytes, ObjectMapper objectMapper) {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Открывает хранилище в каталоге, создавая его при необходимости, и восстанавливает индекс по сегментам
+     *
+     * @param dir             каталог хранилища чата
+     * @param defaultMeta     служебная информация для нового хранилища
+     * @param maxSegmentBytes размер, после которого начинается новый сегмент
+     * @param objectMapper    сериализатор сообщений
+     * @return открытое хранилище
+     */
+    public static SegmentedMessageStore open(Path dir, ChatMessageStoreMeta defaultMeta, long maxSegmentBytes, ObjectMapper objectMapper) throws IOException {
+        if (maxSegmentBytes <= RECORD_HEADER_BYTES || maxSegmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Размер сегмента хранилища сообщений должен быть от %s байт до 2 ГБ".formatted(RECORD_HEADER_BYTES));
+        }
+
+        Files.createDirectories(dir);
+
+        SegmentedMessageStore store = new SegmentedMessageStore(dir, maxSegmentBytes, objectMapper);
+
+        Path metaPath = dir.resolve(META_FILE);
+        store.meta = Files.exists(metaPath)
+            ? objectMapper.readValue(metaPath.toFile(), ChatMessageStoreMeta.class)
+            : defaultMeta;
+
+        store.loadSegments();
+
+        return store;
+    }
+
+    /**
+     * @return количество сообщений в хранилище
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return идентификатор самого позднего сохранённого сообщения или null, если хранилище пустое
+     */
+    public Long lastMessageId() {
+        MessageIndex snapshot = index;
+
+        return snapshot.size() == 0 ? null : snapshot.messageIds()[snapshot.size() - 1];
+    }
+
+    /**
+     * @return дата самого позднего сохранённого сообщения или null, если она неизвестна
+     */
+    public LocalDateTime lastMessageDateTime() {
+        MessageIndex snapshot = index;
+
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            if (snapshot.epochSeconds()[i] != NO_DATE) {
+                return toDateTime(snapshot.epochSeconds()[i]);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Дописывает сообщения в хранилище, уже сохранённые и сообщения без идентификатора пропускаются
+     *
+     * @param messages сообщения в любом порядке
+     * @return количество добавленных сообщений
+     */
+    public synchronized int append(List<TgMessageDto> messages) throws IOException {
+        MessageIndex snapshot = index;
+
+        List<TgMessageDto> newMessages = messages.stream()
+            .filter(message -> message.getMessageId() != null)
+            .filter(message -> Arrays.binarySearch(snapshot.messageIds(), 0, snapshot.size(), message.getMessageId()) < 0)
+            .sorted(Comparator.comparing(TgMessageDto::getMessageId))
+            .toList();
+
+        MessageIndex.Builder added = new MessageIndex.Builder(newMessages.size());
+        long previousMessageId = Long.MIN_VALUE;
+
+        for (TgMessageDto message : newMessages) {
+            if (message.getMessageId() == previousMessageId) {
+                continue;
+            }
+            previousMessageId = message.getMessageId();
+
+            byte[] payload = objectMapper.writeValueAsBytes(message);
+            long epochSecond = message.getDateTime() == null
+                ? NO_DATE
+                : message.getDateTime().toEpochSecond(ZoneOffset.UTC);
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length)
+                .putLong(message.getMessageId())
+                .putLong(epochSecond)
+                .putInt(payload.length)
+                .put(payload)
+                .flip();
+
+            Segment segment = segmentFor(record.remaining());
+            int offset = (int) segment.size;
+
+            while (record.hasRemaining()) {
+                activeChannel.write(record);
+            }
+            segment.size += RECORD_HEADER_BYTES + payload.length;
+
+            added.add(message.getMessageId(), epochSecond, segment.number, offset);
+        }
+
+        if (added.size() > 0) {
+            activeChannel.force(false);
+            index = snapshot.merge(added.build());
+        }
+
+        return added.size();
+    }
+
+    /**
+     * Читает сообщения за период из локальных сегментов
+     *
+     * @param dateFrom начало периода, включительно
+     * @param dateTo   конец периода, не включительно, null - без ограничения
+     * @return сообщения в порядке возрастания messageId
+     */
+    public Stream<TgMessageDto> read(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        MessageIndex snapshot = index;
+
+        long fromEpoch = dateFrom.toEpochSecond(ZoneOffset.UTC);
+        long toEpoch = dateTo == null ? Long.MAX_VALUE : dateTo.toEpochSecond(ZoneOffset.UTC);
+
+        int from = snapshot.lowerBoundByDate(fromEpoch);
+        int to = snapshot.lowerBoundByDate(toEpoch);
+
+        return IntStream.range(from, to)
+            .filter(i -> snapshot.epochSeconds()[i] == NO_DATE
+                || (snapshot.epochSeconds()[i] >= fromEpoch && snapshot.epochSeconds()[i] < toEpoch))
+            .mapToObj(i -> readMessage(snapshot.segmentNumbers()[i], snapshot.offsets()[i]));
+    }
+
+    /**
+     * Сохраняет служебную информацию хранилища
+     */
+    public synchronized void saveMeta() throws IOException {
+        objectMapper.writeValue(dir.resolve(META_FILE).toFile(), meta);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        List<Path> segmentPaths;
+        try (Stream<Path> files = Files.list(dir)) {
+            segmentPaths = files
+                .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .toList();
+        }
+
+        MessageIndex.Builder builder = new MessageIndex.Builder(1024);
+
+        for (Path segmentPath : segmentPaths) {
+            Segment segment = new Segment(segments.size(), segmentPath);
+            segments.add(segment);
+
+            scanSegment(segment, builder);
+        }
+
+        index = MessageIndex.EMPTY.merge(builder.build());
+
+        if (!segments.isEmpty()) {
+            activeChannel = FileChannel.open(segments.getLast().path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        log.info("Открыто локальное хранилище сообщений {}: сегментов {}, сообщений {}", dir, segments.size(), index.size());
+    }
+
+    /**
+     * Читает заголовки записей сегмента, недописанный хвост после аварийного завершения отрезается
+     */
+    private void scanSegment(Segment segment, MessageIndex.Builder builder) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            int offset = 0;
+            while (offset + RECORD_HEADER_BYTES <= fileSize) {
+                long messageId = buffer.getLong(offset);
+                long epochSecond = buffer.getLong(offset + Long.BYTES);
+                int length = buffer.getInt(offset + 2 * Long.BYTES);
+
+                if (length < 0 || offset + RECORD_HEADER_BYTES + (long) length > fileSize) {
+                    break;
+                }
+
+                builder.add(messageId, epochSecond, segment.number, offset);
+                offset += RECORD_HEADER_BYTES + length;
+            }
+
+            if (offset < fileSize) {
+                log.warn("Сегмент {} повреждён, отрезаю {} байт недописанной записи", segment.path, fileSize - offset);
+                channel.truncate(offset);
+            }
+
+            segment.size = offset;
+        }
+    }
+
+    private Segment segmentFor(int recordBytes) throws IOException {
+        if (activeChannel != null && segments.getLast().size + recordBytes <= maxSegmentBytes) {
+            return segments.getLast();
+        }
+
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+
+        Segment segment = new Segment(segments.size(), dir.resolve("%s%06d%s".formatted(SEGMENT_PREFIX, segments.size(), SEGMENT_SUFFIX)));
+        activeChannel = FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segments.add(segment);
+
+        return segment;
+    }
+
+    private TgMessageDto readMessage(int segmentNumber, int offset) {
+        try {
+            ByteBuffer buffer = segments.get(segmentNumber).view(offset);
+
+            int length = buffer.getInt(offset + 2 * Long.BYTES);
+            byte[] payload = new byte[length];
+            buffer.get(offset + RECORD_HEADER_BYTES, payload);
+
+            return objectMapper.readValue(payload, TgMessageDto.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static LocalDateTime toDateTime(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    private static class Segment {
+
+        private final int number;
+        private final Path path;
+        /**
+         * Размер записанных данных, меняется только под блокировкой хранилища
+         */
+        private volatile long size;
+        private volatile MappedByteBuffer mapped;
+
+        Segment(int number, Path path) {
+            this.number = number;
+            this.path = path;
+        }
+
+        /**
+         * @return отображение сегмента, в которое попадает запись с указанным смещением
+         */
+        ByteBuffer view(int offset) throws IOException {
+            MappedByteBuffer current = mapped;
+
+            if (current == null || current.capacity() < offset + RECORD_HEADER_BYTES) {
+                current = remap();
+            }
+
+            return current;
+        }
+
+        private synchronized MappedByteBuffer remap() throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+                return mapped;
+            }
+        }
+    }
+
+    /**
+     * Индекс сообщений, упорядоченный по messageId. Неизменяемый: при дописывании строится новый экземпляр
+     */
+    private record MessageIndex(long[] messageIds, long[] epochSeconds, int[] segmentNumbers, int[] offsets, int size) {
+
+        static final MessageIndex EMPTY = new MessageIndex(new long[0], new long[0], new int[0], new int[0], 0);
+
+        /**
+         * @return первая позиция, дата которой не меньше указанной; позиции без даты пропускаются
+         */
+        int lowerBoundByDate(long epochSecond) {
+            int low = 0;
+            int high = size;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                long midEpoch = nearestKnownDate(mid);
+
+                if (midEpoch < epochSecond) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+        private long nearestKnownDate(int position) {
+            for (int i = position; i >= 0; i--) {
+                if (epochSeconds[i] != NO_DATE) {
+                    return epochSeconds[i];
+                }
+            }
+
+            return Long.MIN_VALUE;
+        }
+
+        /**
+         * Сливает индекс с новыми записями, уже упорядоченными по messageId
+         */
+        MessageIndex merge(MessageIndex added) {
+            int mergedSize = size + added.size;
+            long[] mergedIds = new long[mergedSize];
+            long[] mergedEpochs = new long[mergedSize];
+            int[] mergedSegments = new int[mergedSize];
+            int[] mergedOffsets = new int[mergedSize];
+
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < mergedSize; k++) {
+                boolean takeCurrent = j >= added.size || (i < size && messageIds[i] <= added.messageIds[j]);
+                MessageIndex source = takeCurrent ? this : added;
+                int position = takeCurrent ? i++ : j++;
+
+                mergedIds[k] = source.messageIds[position];
+                mergedEpochs[k] = source.epochSeconds[position];
+                mergedSegments[k] = source.segmentNumbers[position];
+                mergedOffsets[k] = source.offsets[position];
+            }
+
+            return new MessageIndex(mergedIds, mergedEpochs, mergedSegments, mergedOffsets, mergedSize);
+        }
+
+        static class Builder {
+
+            private long[] messageIds;
+            private long[] epochSeconds;
+            private int[] segmentNumbers;
+            private int[] offsets;
+            private int size;
+
+            Builder(int capacity) {
+                int initialCapacity = Math.max(capacity, 16);
+                messageIds = new long[initialCapacity];
+                epochSeconds = new long[initialCapacity];
+                segmentNumbers = new int[initialCapacity];
+                offsets = new int[initialCapacity];
+            }
+
+            void add(long messageId, long epochSecond, int segmentNumber, int offset) {
+                if (size == messageIds.length) {
+                    int newCapacity = size * 2;
+                    messageIds = Arrays.copyOf(messageIds, newCapacity);
+                    epochSeconds = Arrays.copyOf(epochSeconds, newCapacity);
+                    segmentNumbers = Arrays.copyOf(segmentNumbers, newCapacity);
+                    offsets = Arrays.copyOf(offsets, newCapacity);
+                }
+
+                messageIds[size] = messageId;
+                epochSeconds[size] = epochSecond;
+                segmentNumbers[size] = segmentNumber;
+                offsets[size] = offset;
+                size++;
+            }
+
+            int size() {
+                return size;
+            }
+
+            /**
+             * @return индекс, упорядоченный по messageId; при повторе идентификатора остаётся первая запись
+             */
+            MessageIndex build() {
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparingLong(position -> messageIds[position]));
+
+                MessageIndex.Builder sorted = new MessageIndex.Builder(size);
+                long previousMessageId = 0;
+                for (int k = 0; k < size; k++) {
+                    int position = order[k];
+
+                    if (k > 0 && messageIds[position] == previousMessageId) {
+                        continue;
+                    }
+                    previousMessageId = messageIds[position];
+
+                    sorted.messageIds[sorted.size] = messageIds[position];
+                    sorted.epochSeconds[sorted.size] = epochSeconds[position];
+                    sorted.segmentNumbers[sorted.size] = segmentNumbers[position];
+                    sorted.offsets[sorted.size] = offsets[position];
+                    sorted.size++;
+                }
+
+                return new MessageIndex(sorted.messageIds, sorted.epochSeconds, sorted.segmentNumbers, sorted.offsets, sorted.size);
+            }
+        }
+    }
+}
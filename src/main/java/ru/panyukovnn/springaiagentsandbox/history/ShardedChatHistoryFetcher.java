@@ -0,0 +1,229 @@
+package ru.panyukovnn.springaiagentsandbox.history;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Загружает историю чата параллельно по временным окнам.
+ * Одновременно загружается не больше parallelism окон, следующее окно запрашивается, когда потребитель начинает читать очередное,
+ * поэтому в памяти держится ограниченное количество окон. Упавшее окно перезапрашивается отдельно от остальных.
+ * Даты периода, как и в tg-chats-collector, в UTC.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ShardedChatHistoryFetcher {
+
+    private final ChatHistoryStreamLoader chatHistoryStreamLoader;
+
+    @Value("${spring-ai-agent-sandbox.integration.tg-chats-collector.history-fetch.window}")
+    private Duration window;
+    @Value("${spring-ai-agent-sandbox.integration.tg-chats-collector.history-fetch.parallelism}")
+    private int parallelism;
+    @Value("${spring-ai-agent-sandbox.integration.tg-chats-collector.history-fetch.max-retries}")
+    private int maxRetries;
+    @Value("${spring-ai-agent-sandbox.integration.tg-chats-collector.history-fetch.retry-delay}")
+    private Duration retryDelay;
+
+    /**
+     * Возвращает поток сообщений чата за период от dateFrom до текущего момента, упорядоченный по messageId.
+     * Поток необходимо закрыть, чтобы остановить фоновые загрузки.
+     *
+     * @param chatId   идентификатор чата
+     * @param topicId  идентификатор топика
+     * @param dateFrom дата начала периода
+     * @return поток сообщений
+     */
+    public Stream<TgMessageDto> fetch(Long chatId, Long topicId, LocalDateTime dateFrom) {
+        return fetch(chatId, topicId, dateFrom, LocalDateTime.now(ZoneOffset.UTC));
+    }
+
+    /**
+     * Возвращает поток сообщений чата за период [dateFrom, dateTo), упорядоченный по messageId
+     */
+    public Stream<TgMessageDto> fetch(Long chatId, Long topicId, LocalDateTime dateFrom, LocalDateTime dateTo) {
+        List<TimeWindow> windows = splitIntoWindows(dateFrom, dateTo);
+
+        log.info("Загрузка истории чата {} разбита на окон: {}, параллельно: {}", chatId, windows.size(), parallelism);
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        WindowedMessagesIterator iterator = new WindowedMessagesIterator(chatId, topicId, windows, executor);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(() -> {
+                iterator.cancel();
+                executor.shutdownNow();
+            });
+    }
+
+    private List<TimeWindow> splitIntoWindows(LocalDateTime dateFrom, LocalDateTime dateTo) {
+        List<TimeWindow> windows = new ArrayList<>();
+
+        LocalDateTime windowStart = dateFrom;
+        while (windowStart.isBefore(dateTo)) {
+            LocalDateTime windowEnd = windowStart.plus(window);
+            if (windowEnd.isAfter(dateTo)) {
+                windowEnd = dateTo;
+            }
+
+            windows.add(new TimeWindow(windowStart, windowEnd));
+            windowStart = windowEnd;
+        }
+
+        return windows;
+    }
+
+    private List<TgMessageDto> fetchWindowWithRetry(Long chatId, Long topicId, TimeWindow timeWindow) {
+        for (int attempt = 0; ; attempt++) {
+            try (Stream<TgMessageDto> messages = chatHistoryStreamLoader.stream(chatId, topicId, timeWindow.from(), timeWindow.to())) {
+                return messages
+                    .filter(timeWindow::contains)
+                    .sorted(Comparator.comparing(TgMessageDto::getMessageId))
+                    .toList();
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries) {
+                    throw new IllegalStateException("Не удалось загрузить историю чата %s за период %s - %s после %s попыток"
+                        .formatted(chatId, timeWindow.from(), timeWindow.to(), attempt + 1), e);
+                }
+
+                log.warn("Ошибка загрузки истории чата {} за период {} - {}, попытка {}: {}",
+                    chatId, timeWindow.from(), timeWindow.to(), attempt + 1, e.getMessage());
+
+                sleep(retryDelay.multipliedBy(1L << Math.min(attempt, 10)));
+            }
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Ожидание повторной загрузки истории чата прервано", e);
+        }
+    }
+
+    private record TimeWindow(LocalDateTime from, LocalDateTime to) {
+
+        boolean contains(TgMessageDto message) {
+            return message.getDateTime() == null
+                || (!message.getDateTime().isBefore(from) && message.getDateTime().isBefore(to));
+        }
+    }
+
+    /**
+     * Отдаёт сообщения окон по порядку, подгружая следующие окна заранее.
+     * Сообщения с messageId не больше уже отданного отбрасываются, так что пересечение окон не даёт дублей.
+     */
+    private class WindowedMessagesIterator implements Iterator<TgMessageDto> {
+
+        private final Long chatId;
+        private final Long topicId;
+        private final List<TimeWindow> windows;
+        private final ExecutorService executor;
+        private final Deque<CompletableFuture<List<TgMessageDto>>> pendingWindows = new ArrayDeque<>();
+
+        private int nextWindowIndex;
+        private Iterator<TgMessageDto> currentWindow = Collections.emptyIterator();
+        private TgMessageDto nextMessage;
+        private long lastMessageId = Long.MIN_VALUE;
+
+        WindowedMessagesIterator(Long chatId, Long topicId, List<TimeWindow> windows, ExecutorService executor) {
+            this.chatId = chatId;
+            this.topicId = topicId;
+            this.windows = windows;
+            this.executor = executor;
+
+            for (int i = 0; i < parallelism; i++) {
+                submitNextWindow();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextMessage == null) {
+                if (currentWindow.hasNext()) {
+                    TgMessageDto message = currentWindow.next();
+
+                    if (message.getMessageId() > lastMessageId) {
+                        lastMessageId = message.getMessageId();
+                        nextMessage = message;
+                    }
+
+                    continue;
+                }
+
+                if (pendingWindows.isEmpty()) {
+                    return false;
+                }
+
+                currentWindow = joinWindow(pendingWindows.poll()).iterator();
+                submitNextWindow();
+            }
+
+            return true;
+        }
+
+        @Override
+        public TgMessageDto next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            TgMessageDto message = nextMessage;
+            nextMessage = null;
+
+            return message;
+        }
+
+        void cancel() {
+            pendingWindows.forEach(future -> future.cancel(true));
+            pendingWindows.clear();
+        }
+
+        private void submitNextWindow() {
+            if (nextWindowIndex >= windows.size()) {
+                return;
+            }
+
+            TimeWindow timeWindow = windows.get(nextWindowIndex++);
+            pendingWindows.add(CompletableFuture.supplyAsync(() -> fetchWindowWithRetry(chatId, topicId, timeWindow), executor));
+        }
+
+        private List<TgMessageDto> joinWindow(CompletableFuture<List<TgMessageDto>> future) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package ru.panyukovnn.springaiagentsandbox.memory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.panyukovnn.springaiagentsandbox.metrics.LlmMetricsAdvisor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Память диалога с ограничением по токенам.
+ * В промт попадают краткое содержание ранней части диалога и последние сообщения, суммарно не больше max-tokens.
+ * Когда история превышает лимит, старые сообщения сворачиваются в краткое содержание вызовом LLM в фоне,
+ * запрос пользователя этого не ждёт: пока свёртка не завершилась, в промт попадают только помещающиеся последние сообщения.
+ * Диалоги сохраняются на диск после каждого изменения и загружаются при первом обращении после перезапуска.
+ * <p>
+ * После перезапуска восстанавливаются только тексты сообщений: вызовы инструментов и их результаты
+ * к этому моменту уже отражены в ответах модели или кратком содержании.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TokenBudgetChatMemory implements ChatMemory {
+
+    private static final String FILE_SUFFIX = ".json";
+    private static final int SUMMARY_MAX_TOKENS = 1500;
+    /**
+     * Ограничение длины одного сообщения в промте свёртки, чтобы огромные результаты инструментов не переполнили контекст
+     */
+    private static final int MAX_FOLDED_MESSAGE_LENGTH = 20000;
+    private static final String SUMMARY_PREFIX = "Краткое содержание предыдущей части диалога:\n";
+    private static final String SUMMARIZING_PROMPT = """
+        Ниже приведены краткое содержание начала диалога пользователя с ассистентом и следующие за ним сообщения.
+        Составь обновлённое краткое содержание всего диалога: о чём спрашивал пользователь, какие ответы и факты были найдены,
+        какие решения приняты и что осталось невыясненным. Пиши сжато, без вступлений.
+
+        Краткое содержание начала диалога:
+        ======================
+        %s
+        ======================
+
+        Следующие сообщения:
+        ======================
+        %s
+        ======================
+        """;
+
+    private final ChatClient chatClient;
+    private final ObjectMapper objectMapper;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+    private final ExecutorService summarizationExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${spring-ai-agent-sandbox.chat-memory.dir}")
+    private Path memoryDir;
+    @Value("${spring-ai-agent-sandbox.chat-memory.max-tokens}")
+    private int maxTokens;
+    @Value("${spring-ai-agent-sandbox.chat-memory.recent-tokens}")
+    private int recentTokens;
+
+    @PostConstruct
+    @SneakyThrows
+    public void init() {
+        Files.createDirectories(memoryDir);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summarizationExecutor.shutdownNow();
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        Conversation conversation = getConversation(conversationId);
+
+        synchronized (conversation) {
+            messages.forEach(message -> conversation.entries.add(new MemoryEntry(message, estimate(message))));
+            persist(conversationId, conversation);
+
+            if (conversation.totalTokens() > maxTokens && !conversation.summarizing) {
+                conversation.summarizing = true;
+                summarizationExecutor.execute(() -> summarize(conversationId, conversation));
+            }
+        }
+    }
+
+    /**
+     * @return краткое содержание (если есть) и последние сообщения, которые помещаются в max-tokens
+     */
+    @Override
+    public List<Message> get(String conversationId) {
+        Conversation conversation = getConversation(conversationId);
+
+        synchronized (conversation) {
+            int budget = maxTokens - conversation.summaryTokens;
+            List<Message> recentMessages = new ArrayList<>();
+
+            for (int i = conversation.entries.size() - 1; i >= 0; i--) {
+                MemoryEntry entry = conversation.entries.get(i);
+                if (entry.tokens() > budget) {
+                    break;
+                }
+
+                budget -= entry.tokens();
+                recentMessages.add(entry.message());
+            }
+
+            // результат инструмента без предшествующего вызова отклоняется провайдером
+            while (!recentMessages.isEmpty() && recentMessages.getLast() instanceof ToolResponseMessage) {
+                recentMessages.removeLast();
+            }
+            Collections.reverse(recentMessages);
+
+            if (recentMessages.size() < conversation.entries.size()) {
+                log.info("В промт диалога {} попало последних сообщений: {} из {}, ожидают свёртки: {}",
+                    conversationId, recentMessages.size(), conversation.entries.size(), conversation.summarizing);
+            }
+
+            if (conversation.summary == null) {
+                return recentMessages;
+            }
+
+            List<Message> memory = new ArrayList<>(recentMessages.size() + 1);
+            memory.add(new SystemMessage(SUMMARY_PREFIX + conversation.summary));
+            memory.addAll(recentMessages);
+
+            return memory;
+        }
+    }
+
+    @Override
+    @SneakyThrows
+    public void clear(String conversationId) {
+        Conversation conversation = conversations.remove(conversationId);
+
+        if (conversation == null) {
+            Files.deleteIfExists(conversationFile(conversationId));
+
+            return;
+        }
+
+        // под блокировкой: выполняющаяся свёртка после этого не запишет очищенный диалог обратно на диск
+        synchronized (conversation) {
+            conversation.cleared = true;
+            Files.deleteIfExists(conversationFile(conversationId));
+        }
+    }
+
+    /**
+     * Сворачивает в краткое содержание самые старые сообщения так, чтобы дословно осталось не больше recent-tokens
+     */
+    private void summarize(String conversationId, Conversation conversation) {
+        try {
+            String previousSummary;
+            List<MemoryEntry> foldedEntries;
+
+            synchronized (conversation) {
+                previousSummary = conversation.summary;
+                foldedEntries = selectEntriesToFold(conversation);
+            }
+
+            if (foldedEntries.isEmpty()) {
+                return;
+            }
+
+            String foldedMessages = foldedEntries.stream()
+                .map(entry -> entry.message().getMessageType().getValue() + ": " + truncate(textOf(entry.message())))
+                .collect(Collectors.joining("\n\n"));
+
+            String summary = chatClient
+                .prompt(SUMMARIZING_PROMPT.formatted(previousSummary == null ? "(пусто)" : previousSummary, foldedMessages))
+                .advisors(advisor -> advisor.param(LlmMetricsAdvisor.SCENARIO_PARAM, "memorySummary"))
+                .options(ChatOptions.builder()
+                    .maxTokens(SUMMARY_MAX_TOKENS)
+                    .build())
+                .call()
+                .content();
+
+            if (summary == null || summary.isBlank()) {
+                log.warn("LLM вернула пустое краткое содержание диалога {}", conversationId);
+
+                return;
+            }
+
+            synchronized (conversation) {
+                if (conversation.cleared) {
+                    log.info("Диалог {} очищен во время свёртки, краткое содержание отброшено", conversationId);
+
+                    return;
+                }
+
+                // свёрнутые сообщения - начало списка, новые сообщения за время свёртки добавились в конец
+                conversation.entries.subList(0, foldedEntries.size()).clear();
+                conversation.summary = summary;
+                conversation.summaryTokens = tokenCountEstimator.estimate(summary);
+                persist(conversationId, conversation);
+
+                log.info("Диалог {}: свёрнуто сообщений {}, краткое содержание {} токенов, осталось дословно {} токенов",
+                    conversationId, foldedEntries.size(), conversation.summaryTokens, conversation.totalTokens() - conversation.summaryTokens);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Не удалось свернуть историю диалога {}", conversationId, e);
+        } finally {
+            synchronized (conversation) {
+                conversation.summarizing = false;
+            }
+        }
+    }
+
+    private List<MemoryEntry> selectEntriesToFold(Conversation conversation) {
+        int keptTokens = 0;
+        int firstKept = conversation.entries.size();
+
+        while (firstKept > 0 && keptTokens + conversation.entries.get(firstKept - 1).tokens() <= recentTokens) {
+            firstKept--;
+            keptTokens += conversation.entries.get(firstKept).tokens();
+        }
+
+        // дословная часть не должна начинаться с результата инструмента, оторванного от вызова
+        while (firstKept < conversation.entries.size() && conversation.entries.get(firstKept).message() instanceof ToolResponseMessage) {
+            firstKept++;
+        }
+
+        return List.copyOf(conversation.entries.subList(0, firstKept));
+    }
+
+    private Conversation getConversation(String conversationId) {
+        return conversations.computeIfAbsent(conversationId, this::load);
+    }
+
+    private Conversation load(String conversationId) {
+        Path file = conversationFile(conversationId);
+        Conversation conversation = new Conversation();
+
+        if (!Files.exists(file)) {
+            return conversation;
+        }
+
+        try {
+            PersistedConversation persisted = objectMapper.readValue(file.toFile(), PersistedConversation.class);
+
+            conversation.summary = persisted.summary();
+            conversation.summaryTokens = persisted.summary() == null ? 0 : tokenCountEstimator.estimate(persisted.summary());
+            for (PersistedMessage persistedMessage : persisted.messages()) {
+                Message message = switch (persistedMessage.type()) {
+                    case USER -> new UserMessage(persistedMessage.text());
+                    case ASSISTANT -> new AssistantMessage(persistedMessage.text());
+                    case SYSTEM -> new SystemMessage(persistedMessage.text());
+                    case TOOL -> null;
+                };
+
+                if (message != null) {
+                    conversation.entries.add(new MemoryEntry(message, estimate(message)));
+                }
+            }
+
+            log.info("Загружен диалог {}: сообщений {}, краткое содержание: {}", conversationId, conversation.entries.size(), conversation.summary != null);
+        } catch (IOException e) {
+            log.warn("Не удалось загрузить диалог {}: {}", conversationId, file, e);
+        }
+
+        return conversation;
+    }
+
+    /**
+     * Вызывается под блокировкой диалога. Очищенный диалог не сохраняется
+     */
+    private void persist(String conversationId, Conversation conversation) {
+        if (conversation.cleared) {
+            return;
+        }
+
+        List<PersistedMessage> messages = conversation.entries.stream()
+            .map(MemoryEntry::message)
+            .filter(message -> message.getMessageType() != MessageType.TOOL)
+            .filter(message -> message.getText() != null && !message.getText().isBlank())
+            .map(message -> new PersistedMessage(message.getMessageType(), message.getText()))
+            .toList();
+
+        Path file = conversationFile(conversationId);
+        Path tempFile = memoryDir.resolve(file.getFileName() + ".tmp");
+
+        try {
+            objectMapper.writeValue(tempFile.toFile(), new PersistedConversation(conversation.summary, messages));
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить диалог {}: {}", conversationId, file, e);
+        }
+    }
+
+    private Path conversationFile(String conversationId) {
+        return memoryDir.resolve(conversationId.replaceAll("[^a-zA-Z0-9._-]", "_") + FILE_SUFFIX);
+    }
+
+    private int estimate(Message message) {
+        return tokenCountEstimator.estimate(textOf(message));
+    }
+
+    private static String textOf(Message message) {
+        if (message instanceof ToolResponseMessage toolResponseMessage) {
+            return toolResponseMessage.getResponses().stream()
+                .map(ToolResponseMessage.ToolResponse::responseData)
+                .collect(Collectors.joining("\n"));
+        }
+
+        return message.getText();
+    }
+
+    private static String truncate(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        return text.length() <= MAX_FOLDED_MESSAGE_LENGTH
+            ? text
+            : text.substring(0, MAX_FOLDED_MESSAGE_LENGTH) + "…";
+    }
+
+    /**
+     * Сообщение и количество его токенов, подсчитанное один раз при добавлении
+     */
+    private record MemoryEntry(Message message, int tokens) {
+    }
+
+    private static class Conversation {
+
+        private final List<MemoryEntry> entries = new ArrayList<>();
+        private String summary;
+        private int summaryTokens;
+        private boolean summarizing;
+        /**
+         * Диалог удалён через clear, ссылки на него могли остаться у выполняющейся свёртки или параллельного add
+         */
+        private boolean cleared;
+
+        int totalTokens() {
+            return summaryTokens + entries.stream().mapToInt(MemoryEntry::tokens).sum();
+        }
+    }
+
+    record PersistedConversation(String summary, List<PersistedMessage> messages) {
+    }
+
+    record PersistedMessage(MessageType type, String text) {
+    }
+}
@@ -0,0 +1,117 @@
+package ru.panyukovnn.springaiagentsandbox.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+import ru.panyukovnn.springaiagentsandbox.usage.LlmUsageRecorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Замеряет длительность вызовов LLM и учитывает фактический расход токенов по сценариям.
+ * Сценарий передаётся параметром {@link #SCENARIO_PARAM} в контексте запроса ChatClient.
+ * Выполняется после кэша ответов, поэтому замеряются только реальные обращения к модели.
+ */
+@Component
+@RequiredArgsConstructor
+public class LlmMetricsAdvisor implements CallAdvisor, StreamAdvisor {
+
+    public static final String SCENARIO_PARAM = "scenario";
+    public static final String LLM_CALL_TIMER = "llm.call";
+    public static final String LLM_FIRST_TOKEN_TIMER = "llm.first.token";
+    private static final String UNKNOWN_SCENARIO = "unknown";
+
+    private final MeterRegistry meterRegistry;
+    private final LlmUsageRecorder llmUsageRecorder;
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        String scenario = resolveScenario(chatClientRequest);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+
+        try {
+            ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+
+            llmUsageRecorder.record(scenario, chatClientResponse.chatResponse());
+            outcome = "success";
+
+            return chatClientResponse;
+        } finally {
+            sample.stop(timer(LLM_CALL_TIMER, scenario, outcome));
+        }
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        String scenario = resolveScenario(chatClientRequest);
+        long startNanos = System.nanoTime();
+        AtomicBoolean firstTokenReceived = new AtomicBoolean();
+        AtomicReference<ChatResponse> responseWithUsage = new AtomicReference<>();
+
+        return streamAdvisorChain.nextStream(chatClientRequest)
+            .doOnNext(chatClientResponse -> {
+                ChatResponse chatResponse = chatClientResponse.chatResponse();
+                if (chatResponse == null) {
+                    return;
+                }
+
+                if (firstTokenReceived.compareAndSet(false, true)) {
+                    timer(LLM_FIRST_TOKEN_TIMER, scenario, "success").record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                }
+
+                if (chatResponse.getMetadata() != null && chatResponse.getMetadata().getUsage() != null
+                    && chatResponse.getMetadata().getUsage().getTotalTokens() != null
+                    && chatResponse.getMetadata().getUsage().getTotalTokens() > 0) {
+                    responseWithUsage.set(chatResponse);
+                }
+            })
+            .doFinally(signalType -> {
+                String outcome = signalType == SignalType.ON_COMPLETE ? "success" : "error";
+                timer(LLM_CALL_TIMER, scenario, outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+
+                llmUsageRecorder.record(scenario, responseWithUsage.get());
+            });
+    }
+
+    @Override
+    public String getName() {
+        return LlmMetricsAdvisor.class.getSimpleName();
+    }
+
+    /**
+     * Выполняется после кэша ответов LLM, но до вызова модели
+     */
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE - 500;
+    }
+
+    private Timer timer(String name, String scenario, String outcome) {
+        return Timer.builder(name)
+            .tag("scenario", scenario)
+            .tag("outcome", outcome)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    private static String resolveScenario(ChatClientRequest chatClientRequest) {
+        Object scenario = chatClientRequest.context().get(SCENARIO_PARAM);
+
+        return scenario == null ? UNKNOWN_SCENARIO : scenario.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.panyukovnn.springaiagentsandbox.metrics;
+
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодически записывает метрики в файл в текстовом формате Prometheus, например для node_exporter textfile collector.
+ * Файл перезаписывается атомарно, последний снимок сохраняется при остановке приложения.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "spring-ai-agent-sandbox.metrics.prometheus-export.enabled", havingValue = "true")
+public class PrometheusFileExporter {
+
+    private final PrometheusMeterRegistry prometheusMeterRegistry;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("prometheus-file-exporter").daemon().factory());
+
+    @Value("${spring-ai-agent-sandbox.metrics.prometheus-export.file}")
+    private Path exportFile;
+    @Value("${spring-ai-agent-sandbox.metrics.prometheus-export.interval}")
+    private Duration interval;
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::export, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+
+        log.info("Метрики будут выгружаться в файл {} каждые {}", exportFile, interval);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        export();
+    }
+
+    private void export() {
+        try {
+            Files.createDirectories(exportFile.toAbsolutePath().getParent());
+
+            Path tempFile = exportFile.resolveSibling(exportFile.getFileName() + ".tmp");
+            Files.writeString(tempFile, prometheusMeterRegistry.scrape(), StandardCharsets.UTF_8);
+            Files.move(tempFile, exportFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Не удалось выгрузить метрики в файл {}: {}", exportFile, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.panyukovnn.springaiagentsandbox.rag;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Векторный индекс переписки одного чата (или топика форума).
+ * Индекс помнит каждое проиндексированное сообщение, поэтому при повторных вопросах эмбеддятся только новые сообщения,
+ * в том числе догруженные позже пропуски внутри уже проиндексированного периода.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ChatRagIndex {
+
+    private final String key;
+    private final ChatRagIndexMeta meta;
+    private final PersistentVectorStore vectorStore;
+
+    /**
+     * Отбирает сообщения, которые ещё не попали в индекс
+     *
+     * @param messages сообщения переписки
+     * @return сообщения, которые необходимо проиндексировать
+     */
+    public List<TgMessageDto> selectNotIndexed(List<TgMessageDto> messages) {
+        Long base = meta.getIndexedMessageIdBase();
+
+        if (base == null) {
+            return messages;
+        }
+
+        BitSet indexed = BitSet.valueOf(meta.getIndexedMessageIds());
+
+        return messages.stream()
+            .filter(message -> !isIndexed(indexed, base, message.getMessageId()))
+            .toList();
+    }
+
+    /**
+     * Отмечает сообщения проиндексированными
+     *
+     * @param indexedMessages только что проиндексированные сообщения
+     */
+    public void markIndexed(List<TgMessageDto> indexedMessages) {
+        if (indexedMessages.isEmpty()) {
+            return;
+        }
+
+        long minMessageId = indexedMessages.stream()
+            .mapToLong(TgMessageDto::getMessageId)
+            .min()
+            .getAsLong();
+
+        Long base = meta.getIndexedMessageIdBase();
+        BitSet indexed;
+        if (base == null) {
+            base = minMessageId;
+            indexed = new BitSet();
+        } else {
+            indexed = BitSet.valueOf(meta.getIndexedMessageIds());
+
+            if (minMessageId < base) {
+                // карта начинается с самого раннего проиндексированного сообщения, более ранние сообщения сдвигают её
+                indexed = shift(indexed, base - minMessageId);
+                base = minMessageId;
+            }
+        }
+
+        for (TgMessageDto message : indexedMessages) {
+            indexed.set(Math.toIntExact(message.getMessageId() - base));
+        }
+
+        meta.setIndexedMessageIdBase(base);
+        meta.setIndexedMessageIds(indexed.toLongArray());
+    }
+
+    private static boolean isIndexed(BitSet indexed, long base, long messageId) {
+        long offset = messageId - base;
+
+        return offset >= 0 && offset <= Integer.MAX_VALUE && indexed.get((int) offset);
+    }
+
+    private static BitSet shift(BitSet bits, long distance) {
+        BitSet shifted = new BitSet();
+        bits.stream().forEach(bit -> shifted.set(Math.toIntExact(bit + distance)));
+
+        return shifted;
+    }
+}
@@ -0,0 +1,37 @@
+package ru.panyukovnn.springaiagentsandbox.rag;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Служебная информация о векторном индексе чата, хранится рядом с файлом векторов
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatRagIndexMeta {
+
+    /**
+     * Версия формата индекса: 3 - у чанков есть дата самого позднего сообщения для фильтрации по периоду,
+     * проиндексированные сообщения хранятся битовой картой
+     */
+    public static final int CURRENT_FORMAT_VERSION = 3;
+
+    /**
+     * Индексы другой версии собираются заново
+     */
+    private int formatVersion;
+    private Long chatId;
+    private Long topicId;
+    /**
+     * Идентификатор сообщения, которому соответствует нулевой бит карты проиндексированных сообщений
+     */
+    private Long indexedMessageIdBase;
+    /**
+     * Битовая карта проиндексированных сообщений в формате {@link java.util.BitSet#toLongArray()}
+     */
+    private long[] indexedMessageIds;
+}
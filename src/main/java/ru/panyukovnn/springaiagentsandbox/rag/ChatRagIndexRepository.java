@@ -0,0 +1,146 @@
+package ru.panyukovnn.springaiagentsandbox.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Хранит векторные индексы чатов на локальном диске и держит их загруженными в памяти
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatRagIndexRepository {
+
+    private static final String VECTOR_STORE_HNSW = "hnsw";
+    private static final String META_FILE_SUFFIX = ".meta.json";
+
+    private final ObjectMapper objectMapper;
+    private final EmbeddingModel embeddingModel;
+    private final Map<String, ChatRagIndex> indexes = new ConcurrentHashMap<>();
+
+    @Value("${spring-ai-agent-sandbox.rag.index-dir}")
+    private Path indexDir;
+    @Value("${spring-ai-agent-sandbox.rag.vector-store}")
+    private String vectorStoreType;
+    @Value("${spring-ai-agent-sandbox.rag.hnsw.m}")
+    private int hnswM;
+    @Value("${spring-ai-agent-sandbox.rag.hnsw.ef-construction}")
+    private int hnswEfConstruction;
+    @Value("${spring-ai-agent-sandbox.rag.hnsw.ef-search}")
+    private int hnswEfSearch;
+
+    /**
+     * Загружает с диска ранее построенные индексы
+     */
+    @PostConstruct
+    @SneakyThrows
+    public void loadIndexes() {
+        Files.createDirectories(indexDir);
+
+        try (Stream<Path> metaFiles = Files.list(indexDir)) {
+            metaFiles
+                .filter(path -> path.getFileName().toString().endsWith(META_FILE_SUFFIX))
+                .forEach(this::loadIndex);
+        }
+
+        log.info("Загружено векторных индексов чатов: {}", indexes.size());
+    }
+
+    /**
+     * Возвращает индекс чата, создавая пустой при первом обращении
+     *
+     * @param chatId  идентификатор чата
+     * @param topicId идентификатор топика
+     * @return индекс чата
+     */
+    public ChatRagIndex getOrCreate(Long chatId, Long topicId) {
+        return indexes.computeIfAbsent(buildKey(chatId, topicId), key -> new ChatRagIndex(
+            key,
+            ChatRagIndexMeta.builder()
+                .chatId(chatId)
+                .topicId(topicId)
+                .formatVersion(ChatRagIndexMeta.CURRENT_FORMAT_VERSION)
+                .build(),
+            createVectorStore()));
+    }
+
+    /**
+     * Сохраняет векторы и служебную информацию индекса на диск
+     *
+     * @param index индекс чата
+     */
+    @SneakyThrows
+    public void save(ChatRagIndex index) {
+        index.getVectorStore().save(vectorsFile(index.getKey()));
+        objectMapper.writeValue(metaFile(index.getKey()), index.getMeta());
+    }
+
+    private void loadIndex(Path metaPath) {
+        String fileName = metaPath.getFileName().toString();
+        String key = fileName.substring(0, fileName.length() - META_FILE_SUFFIX.length());
+
+        try {
+            ChatRagIndexMeta meta = objectMapper.readValue(metaPath.toFile(), ChatRagIndexMeta.class);
+
+            PersistentVectorStore vectorStore = createVectorStore();
+            File vectorsFile = vectorsFile(key);
+            if (meta.getFormatVersion() != ChatRagIndexMeta.CURRENT_FORMAT_VERSION) {
+                log.info("Векторный индекс {} построен в устаревшем формате и будет собран заново", key);
+                resetIndexedMessages(meta);
+            } else if (vectorsFile.exists()) {
+                vectorStore.load(vectorsFile);
+            } else {
+                // векторы построены хранилищем другого типа, индекс придётся собрать заново
+                resetIndexedMessages(meta);
+            }
+
+            indexes.put(key, new ChatRagIndex(key, meta, vectorStore));
+        } catch (Exception e) {
+            log.error("Не удалось загрузить векторный индекс: {}", key, e);
+        }
+    }
+
+    private static void resetIndexedMessages(ChatRagIndexMeta meta) {
+        meta.setFormatVersion(ChatRagIndexMeta.CURRENT_FORMAT_VERSION);
+        meta.setIndexedMessageIdBase(null);
+        meta.setIndexedMessageIds(null);
+    }
+
+    /**
+     * @return in-memory векторное хранилище: приближённый поиск по графу HNSW или полный перебор.
+     */
+    private PersistentVectorStore createVectorStore() {
+        if (VECTOR_STORE_HNSW.equals(vectorStoreType)) {
+            return new HnswVectorStore(embeddingModel, hnswM, hnswEfConstruction, hnswEfSearch);
+        }
+
+        return new SimplePersistentVectorStore(embeddingModel);
+    }
+
+    private File vectorsFile(String key) {
+        return indexDir.resolve(key + "." + vectorStoreType + ".vectors").toFile();
+    }
+
+    private File metaFile(String key) {
+        return indexDir.resolve(key + META_FILE_SUFFIX).toFile();
+    }
+
+    private static String buildKey(Long chatId, Long topicId) {
+        return topicId == null
+            ? String.valueOf(chatId)
+            : chatId + "_" + topicId;
+    }
+}
@@ -0,0 +1,742 @@
+package ru.panyukovnn.springaiagentsandbox.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.SneakyThrows;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Векторное хранилище с приближённым поиском ближайших соседей по графу HNSW.
+ * Векторы нормализуются и хранятся в одном непрерывном массиве float, косинусная близость считается скалярным произведением.
+ * <p>
+ * Параметры:
+ * <ul>
+ *     <li>m - количество связей узла на каждом уровне графа (на нулевом уровне - 2 * m), больше - точнее и тяжелее по памяти</li>
+ *     <li>efConstruction - ширина поиска при построении графа, больше - качественнее граф и медленнее индексация</li>
+ *     <li>efSearch - ширина поиска при запросе, больше - выше полнота и больше задержка</li>
+ * </ul>
+ * Фильтры по метаданным поддерживаются в том же синтаксисе, что и в SimpleVectorStore.
+ */
+public class HnswVectorStore implements PersistentVectorStore {
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int EMBEDDING_BATCH_SIZE = 64;
+    private static final ObjectMapper METADATA_MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+    /**
+     * Поиск с фильтром заменяется полным перебором, если нужная ширина поиска больше этой доли индекса:
+     * обход графа такой ширины дороже перебора
+     */
+    private static final int EXACT_SEARCH_INDEX_SHARE = 4;
+    /**
+     * Количество узлов, по которым оценивается доля документов, подходящих под фильтр
+     */
+    private static final int SELECTIVITY_SAMPLE_SIZE = 256;
+    private static final ExpressionParser EXPRESSION_PARSER = new SpelExpressionParser();
+    private static final FilterExpressionConverter FILTER_EXPRESSION_CONVERTER = new SimpleVectorStoreFilterExpressionConverter();
+
+    private final EmbeddingModel embeddingModel;
+    private final int efConstruction;
+    private final int efSearch;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Random random = new Random(42);
+    private final Map<String, Integer> nodeById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+
+    private int m;
+    private double levelMultiplier;
+    private int dimensions;
+    private int size;
+    private float[] vectors = new float[0];
+    private int[] nodeLevels = new int[0];
+    /**
+     * Связи узлов: links[узел][уровень] = [количество, сосед1, сосед2, ...]
+     */
+    private int[][][] links = new int[0][][];
+    private Document[] documents = new Document[0];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswVectorStore(EmbeddingModel embeddingModel, int m, int efConstruction, int efSearch) {
+        this.embeddingModel = embeddingModel;
+        this.m = m;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+    }
+
+    @Override
+    public void add(List<Document> documentsToAdd) {
+        List<float[]> embeddings = embed(documentsToAdd);
+
+        addEmbedded(documentsToAdd, embeddings);
+    }
+
+    /**
+     * Добавляет документы с уже посчитанными эмбеддингами
+     *
+     * @param documentsToAdd документы
+     * @param embeddings     эмбеддинги документов в том же порядке
+     */
+    public void addEmbedded(List<Document> documentsToAdd, List<float[]> embeddings) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documentsToAdd.size(); i++) {
+                insert(documentsToAdd.get(i), embeddings.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            idList.forEach(id -> {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    deleted.set(node);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        Predicate<Document> filter = toPredicate(filterExpression);
+
+        lock.writeLock().lock();
+        try {
+            for (int node = 0; node < size; node++) {
+                if (!deleted.get(node) && filter.test(documents[node])) {
+                    deleted.set(node);
+                    nodeById.remove(documents[node].getId());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return similaritySearch(request, efSearch);
+    }
+
+    /**
+     * Поиск с явно заданной шириной поиска, позволяет подобрать баланс полноты и задержки без перестроения графа
+     *
+     * @param request  поисковый запрос
+     * @param efSearch ширина поиска
+     * @return найденные документы, отсортированные по убыванию близости
+     */
+    public List<Document> similaritySearch(SearchRequest request, int efSearch) {
+        Predicate<Document> filter = request.hasFilterExpression() ? toPredicate(request.getFilterExpression()) : null;
+        float[] query = normalize(embeddingModel.embed(request.getQuery()));
+
+        return search(query, request.getTopK(), request.getSimilarityThreshold(), efSearch, filter);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deleted.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @SneakyThrows
+    public void save(File file) {
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(m);
+            out.writeInt(dimensions);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+
+            for (int i = 0; i < size * dimensions; i++) {
+                out.writeFloat(vectors[i]);
+            }
+
+            for (int node = 0; node < size; node++) {
+                out.writeInt(nodeLevels[node]);
+                for (int level = 0; level <= nodeLevels[node]; level++) {
+                    int[] nodeLinks = links[node][level];
+                    out.writeInt(nodeLinks.length);
+                    for (int link : nodeLinks) {
+                        out.writeInt(link);
+                    }
+                }
+
+                Document document = documents[node];
+                out.writeBoolean(deleted.get(node));
+                out.writeUTF(document.getId());
+                writeBytes(out, document.getText());
+                writeBytes(out, METADATA_MAPPER.writeValueAsString(document.getMetadata()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @SneakyThrows
+    public void load(File file) {
+        lock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalStateException("Файл не является HNSW индексом: %s".formatted(file));
+            }
+
+            m = in.readInt();
+            levelMultiplier = 1 / Math.log(m);
+            dimensions = in.readInt();
+            size = in.readInt();
+            entryPoint = in.readInt();
+            maxLevel = in.readInt();
+
+            vectors = new float[size * dimensions];
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] = in.readFloat();
+            }
+
+            nodeLevels = new int[size];
+            links = new int[size][][];
+            documents = new Document[size];
+            nodeById.clear();
+            deleted.clear();
+
+            for (int node = 0; node < size; node++) {
+                nodeLevels[node] = in.readInt();
+                links[node] = new int[nodeLevels[node] + 1][];
+                for (int level = 0; level <= nodeLevels[node]; level++) {
+                    int[] nodeLinks = new int[in.readInt()];
+                    for (int i = 0; i < nodeLinks.length; i++) {
+                        nodeLinks[i] = in.readInt();
+                    }
+                    links[node][level] = nodeLinks;
+                }
+
+                boolean nodeDeleted = in.readBoolean();
+                String id = in.readUTF();
+                String text = readBytes(in);
+                Map<String, Object> metadata = METADATA_MAPPER.readValue(readBytes(in), METADATA_TYPE);
+
+                documents[node] = new Document(id, text, metadata);
+                if (nodeDeleted) {
+                    deleted.set(node);
+                } else {
+                    nodeById.put(id, node);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<float[]> embed(List<Document> documentsToEmbed) {
+        List<float[]> embeddings = new ArrayList<>(documentsToEmbed.size());
+
+        for (int from = 0; from < documentsToEmbed.size(); from += EMBEDDING_BATCH_SIZE) {
+            List<String> texts = documentsToEmbed.subList(from, Math.min(from + EMBEDDING_BATCH_SIZE, documentsToEmbed.size())).stream()
+                .map(Document::getText)
+                .toList();
+
+            embeddings.addAll(embeddingModel.embed(texts));
+        }
+
+        return embeddings;
+    }
+
+    /**
+     * Поиск по графу. С фильтром по метаданным сначала по выборке узлов оценивается доля подходящих документов,
+     * и ширина поиска увеличивается обратно пропорционально ей, а найденные узлы фильтруются после поиска.
+     * Если под фильтр подходит мало документов и нужная ширина сравнима с размером индекса, сразу выполняется полный перебор
+     * подходящих документов. Он же выполняется, если после фильтрации осталось меньше topK документов выше порога близости
+     */
+    private List<Document> search(float[] query, int topK, double similarityThreshold, int ef, Predicate<Document> filter) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return List.of();
+            }
+
+            int currentEf = Math.max(ef, topK);
+
+            if (filter == null) {
+                return collect(searchGraph(query, currentEf), topK, similarityThreshold, null);
+            }
+
+            int liveSize = size - deleted.cardinality();
+            double selectivity = estimateSelectivity(filter);
+            // ширина, при которой среди найденных узлов ожидается currentEf подходящих под фильтр
+            double filteredEf = selectivity == 0 ? Double.MAX_VALUE : currentEf / selectivity;
+
+            if (filteredEf * EXACT_SEARCH_INDEX_SHARE >= liveSize) {
+                return collect(exactSearch(query, filter), topK, similarityThreshold, filter);
+            }
+
+            Candidates candidates = searchGraph(query, (int) Math.ceil(filteredEf));
+            List<Document> result = collect(candidates, topK, similarityThreshold, filter);
+
+            // самый далёкий найденный узел уже ниже порога: остальные узлы тоже не пройдут порог
+            boolean thresholdReached = candidates.scores().length > 0
+                && candidates.scores()[candidates.scores().length - 1] < similarityThreshold;
+            if (result.size() >= topK || thresholdReached) {
+                return result;
+            }
+
+            return collect(exactSearch(query, filter), topK, similarityThreshold, filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Оценивает долю не удалённых документов, подходящих под фильтр, по равномерной выборке узлов.
+     * Узлы добавляются в хронологическом порядке, поэтому равномерная выборка покрывает весь период переписки
+     */
+    private double estimateSelectivity(Predicate<Document> filter) {
+        int step = Math.max(1, size / SELECTIVITY_SAMPLE_SIZE);
+        int sampled = 0;
+        int matched = 0;
+
+        for (int node = 0; node < size; node += step) {
+            if (deleted.get(node)) {
+                continue;
+            }
+
+            sampled++;
+            if (filter.test(documents[node])) {
+                matched++;
+            }
+        }
+
+        return sampled == 0 ? 0 : (double) matched / sampled;
+    }
+
+    /**
+     * @return не более ef ближайших узлов графа по убыванию близости
+     */
+    private Candidates searchGraph(float[] query, int ef) {
+        int nearest = entryPoint;
+        for (int level = maxLevel; level > 0; level--) {
+            nearest = greedyClosest(query, nearest, level);
+        }
+
+        NodeHeap found = searchLayer(query, nearest, ef, 0);
+
+        int[] foundNodes = new int[found.size()];
+        float[] foundScores = new float[found.size()];
+        for (int i = foundNodes.length - 1; i >= 0; i--) {
+            foundScores[i] = found.topScore();
+            foundNodes[i] = found.pop();
+        }
+
+        return new Candidates(foundNodes, foundScores);
+    }
+
+    /**
+     * @return все не удалённые узлы, подходящие под фильтр, по убыванию близости
+     */
+    private Candidates exactSearch(float[] query, Predicate<Document> filter) {
+        List<Integer> matchingNodes = new ArrayList<>();
+        for (int node = 0; node < size; node++) {
+            if (!deleted.get(node) && filter.test(documents[node])) {
+                matchingNodes.add(node);
+            }
+        }
+
+        float[] nodeScores = new float[size];
+        matchingNodes.forEach(node -> nodeScores[node] = similarity(query, node));
+        matchingNodes.sort((first, second) -> Float.compare(nodeScores[second], nodeScores[first]));
+
+        int[] foundNodes = new int[matchingNodes.size()];
+        float[] foundScores = new float[matchingNodes.size()];
+        for (int i = 0; i < foundNodes.length; i++) {
+            foundNodes[i] = matchingNodes.get(i);
+            foundScores[i] = nodeScores[foundNodes[i]];
+        }
+
+        return new Candidates(foundNodes, foundScores);
+    }
+
+    private List<Document> collect(Candidates candidates, int topK, double similarityThreshold, Predicate<Document> filter) {
+        List<Document> result = new ArrayList<>(topK);
+
+        for (int i = 0; i < candidates.nodes().length && result.size() < topK; i++) {
+            int node = candidates.nodes()[i];
+            float score = candidates.scores()[i];
+
+            if (deleted.get(node) || score < similarityThreshold) {
+                continue;
+            }
+
+            Document document = documents[node];
+            if (filter != null && !filter.test(document)) {
+                continue;
+            }
+
+            Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+            metadata.put("distance", 1 - score);
+
+            result.add(Document.builder()
+                .id(document.getId())
+                .text(document.getText())
+                .metadata(metadata)
+                .score((double) score)
+                .build());
+        }
+
+        return result;
+    }
+
+    /**
+     * Фильтр вычисляется так же, как в SimpleVectorStore: выражение переводится в SpEL над метаданными документа
+     */
+    private static Predicate<Document> toPredicate(Filter.Expression filterExpression) {
+        Expression expression = EXPRESSION_PARSER.parseExpression(FILTER_EXPRESSION_CONVERTER.convertExpression(filterExpression));
+
+        return document -> {
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            context.setVariable("metadata", document.getMetadata());
+
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+
+    private void insert(Document document, float[] embedding) {
+        if (dimensions == 0) {
+            dimensions = embedding.length;
+        } else if (dimensions != embedding.length) {
+            throw new IllegalStateException("Размерность эмбеддинга %s не совпадает с размерностью индекса %s".formatted(embedding.length, dimensions));
+        }
+
+        Integer existingNode = nodeById.get(document.getId());
+        if (existingNode != null) {
+            deleted.set(existingNode);
+        }
+
+        int node = size;
+        ensureCapacity(node + 1);
+
+        float[] vector = normalize(embedding);
+        System.arraycopy(vector, 0, vectors, node * dimensions, dimensions);
+
+        int level = randomLevel();
+        nodeLevels[node] = level;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[maxConnections(l) + 1];
+        }
+        documents[node] = new Document(document.getId(), document.getText(), document.getMetadata());
+        nodeById.put(document.getId(), node);
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+
+            return;
+        }
+
+        int nearest = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            nearest = greedyClosest(vector, nearest, l);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap found = searchLayer(vector, nearest, efConstruction, l);
+            int[] candidates = new int[found.size()];
+            float[] candidateScores = new float[found.size()];
+            for (int i = candidates.length - 1; i >= 0; i--) {
+                candidateScores[i] = found.topScore();
+                candidates[i] = found.pop();
+            }
+            nearest = candidates[0];
+
+            int[] neighbours = selectNeighbours(candidates, candidateScores, maxConnections(l));
+            setLinks(node, l, neighbours);
+
+            for (int neighbour : neighbours) {
+                connect(neighbour, node, l);
+            }
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float currentScore = similarity(query, current);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            int[] nodeLinks = links[current][level];
+            for (int i = 1; i <= nodeLinks[0]; i++) {
+                float score = similarity(query, nodeLinks[i]);
+                if (score > currentScore) {
+                    currentScore = score;
+                    current = nodeLinks[i];
+                    changed = true;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * @return куча не более чем из ef ближайших узлов уровня, на вершине - наименее близкий
+     */
+    private NodeHeap searchLayer(float[] query, int start, int ef, int level) {
+        BitSet visited = new BitSet(size);
+        NodeHeap candidates = new NodeHeap(ef, true);
+        NodeHeap results = new NodeHeap(ef + 1, false);
+
+        float startScore = similarity(query, start);
+        visited.set(start);
+        candidates.push(start, startScore);
+        results.push(start, startScore);
+
+        while (!candidates.isEmpty()) {
+            float candidateScore = candidates.topScore();
+            int candidate = candidates.pop();
+
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+
+            int[] nodeLinks = links[candidate][level];
+            for (int i = 1; i <= nodeLinks[0]; i++) {
+                int neighbour = nodeLinks[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+
+                float score = similarity(query, neighbour);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Эвристика выбора соседей из статьи HNSW: кандидат добавляется, только если он ближе к узлу, чем к уже выбранным соседям.
+     * Это сохраняет связи между кластерами. Оставшиеся места заполняются ближайшими из отброшенных кандидатов.
+     */
+    private int[] selectNeighbours(int[] candidatesDescending, float[] candidateScores, int maxNeighbours) {
+        int[] selected = new int[Math.min(maxNeighbours, candidatesDescending.length)];
+        boolean[] taken = new boolean[candidatesDescending.length];
+        int count = 0;
+
+        for (int i = 0; i < candidatesDescending.length && count < selected.length; i++) {
+            int candidate = candidatesDescending[i];
+
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (nodeSimilarity(candidate, selected[j]) > candidateScores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+
+            if (diverse) {
+                selected[count++] = candidate;
+                taken[i] = true;
+            }
+        }
+
+        for (int i = 0; i < candidatesDescending.length && count < selected.length; i++) {
+            if (!taken[i]) {
+                selected[count++] = candidatesDescending[i];
+            }
+        }
+
+        return selected;
+    }
+
+    private void connect(int node, int newNeighbour, int level) {
+        int[] nodeLinks = links[node][level];
+        int count = nodeLinks[0];
+
+        if (count < nodeLinks.length - 1) {
+            nodeLinks[count + 1] = newNeighbour;
+            nodeLinks[0] = count + 1;
+
+            return;
+        }
+
+        int[] candidates = Arrays.copyOfRange(nodeLinks, 1, count + 2);
+        candidates[count] = newNeighbour;
+
+        float[] candidateScores = new float[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            candidateScores[i] = nodeSimilarity(node, candidates[i]);
+        }
+
+        // сортировка вставками по убыванию близости, кандидатов немного
+        for (int i = 1; i < candidates.length; i++) {
+            int candidate = candidates[i];
+            float score = candidateScores[i];
+
+            int j = i - 1;
+            while (j >= 0 && candidateScores[j] < score) {
+                candidates[j + 1] = candidates[j];
+                candidateScores[j + 1] = candidateScores[j];
+                j--;
+            }
+            candidates[j + 1] = candidate;
+            candidateScores[j + 1] = score;
+        }
+
+        setLinks(node, level, selectNeighbours(candidates, candidateScores, nodeLinks.length - 1));
+    }
+
+    private void setLinks(int node, int level, int[] neighbours) {
+        int[] nodeLinks = links[node][level];
+
+        nodeLinks[0] = neighbours.length;
+        System.arraycopy(neighbours, 0, nodeLinks, 1, neighbours.length);
+    }
+
+    private float similarity(float[] query, int node) {
+        return dot(query, 0, vectors, node * dimensions);
+    }
+
+    private float nodeSimilarity(int first, int second) {
+        return dot(vectors, first * dimensions, vectors, second * dimensions);
+    }
+
+    /**
+     * Скалярное произведение с четырьмя независимыми аккумуляторами, чтобы JIT мог загрузить конвейер процессора
+     */
+    private float dot(float[] first, int firstOffset, float[] second, int secondOffset) {
+        float sum0 = 0;
+        float sum1 = 0;
+        float sum2 = 0;
+        float sum3 = 0;
+
+        int i = 0;
+        for (int bound = dimensions - 3; i < bound; i += 4) {
+            sum0 += first[firstOffset + i] * second[secondOffset + i];
+            sum1 += first[firstOffset + i + 1] * second[secondOffset + i + 1];
+            sum2 += first[firstOffset + i + 2] * second[secondOffset + i + 2];
+            sum3 += first[firstOffset + i + 3] * second[secondOffset + i + 3];
+        }
+        for (; i < dimensions; i++) {
+            sum0 += first[firstOffset + i] * second[secondOffset + i];
+        }
+
+        return sum0 + sum1 + sum2 + sum3;
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? m * 2 : m;
+    }
+
+    private int randomLevel() {
+        return (int) Math.floor(-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int requiredSize) {
+        if (requiredSize <= nodeLevels.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(requiredSize, Math.max(16, nodeLevels.length + (nodeLevels.length >> 1)));
+
+        vectors = Arrays.copyOf(vectors, newCapacity * dimensions);
+        nodeLevels = Arrays.copyOf(nodeLevels, newCapacity);
+        links = Arrays.copyOf(links, newCapacity);
+        documents = Arrays.copyOf(documents, newCapacity);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+
+        return normalized;
+    }
+
+    private static void writeBytes(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Найденные узлы и их близость к запросу, по убыванию близости
+     */
+    private record Candidates(int[] nodes, float[] scores) {
+    }
+}
@@ -0,0 +1,107 @@
+package ru.panyukovnn.springaiagentsandbox.rag;
+
+import java.util.Arrays;
+
+/**
+ * Двоичная куча узлов графа на примитивных массивах, упорядоченная по близости к запросу
+ */
+class NodeHeap {
+
+    private final boolean maxHeap;
+    private int[] nodes;
+    private float[] scores;
+    private int size;
+
+    NodeHeap(int initialCapacity, boolean maxHeap) {
+        this.maxHeap = maxHeap;
+        this.nodes = new int[Math.max(initialCapacity, 4)];
+        this.scores = new float[nodes.length];
+    }
+
+    void push(int node, float score) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+
+        nodes[size] = node;
+        scores[size] = score;
+        siftUp(size++);
+    }
+
+    int pop() {
+        int top = nodes[0];
+
+        size--;
+        nodes[0] = nodes[size];
+        scores[0] = scores[size];
+        siftDown(0);
+
+        return top;
+    }
+
+    int topNode() {
+        return nodes[0];
+    }
+
+    float topScore() {
+        return scores[0];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(index, parent)) {
+                return;
+            }
+
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = index * 2 + 1;
+            int right = left + 1;
+            int best = index;
+
+            if (left < size && before(left, best)) {
+                best = left;
+            }
+            if (right < size && before(right, best)) {
+                best = right;
+            }
+            if (best == index) {
+                return;
+            }
+
+            swap(index, best);
+            index = best;
+        }
+    }
+
+    private boolean before(int first, int second) {
+        return maxHeap
+            ? scores[first] > scores[second]
+            : scores[first] < scores[second];
+    }
+
+    private void swap(int first, int second) {
+        int node = nodes[first];
+        nodes[first] = nodes[second];
+        nodes[second] = node;
+
+        float score = scores[first];
+        scores[first] = scores[second];
+        scores[second] = score;
+    }
+}
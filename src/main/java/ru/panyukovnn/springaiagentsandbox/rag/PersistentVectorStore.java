@@ -0,0 +1,15 @@
+package ru.panyukovnn.springaiagentsandbox.rag;
+
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.io.File;
+
+/**
+ * Векторное хранилище, которое умеет сохранять своё содержимое в файл и загружать его обратно
+ */
+public interface PersistentVectorStore extends VectorStore {
+
+    void save(File file);
+
+    void load(File file);
+}
@@ -0,0 +1,14 @@
+package ru.panyukovnn.springaiagentsandbox.rag;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+/**
+ * {@link SimpleVectorStore} с полным перебором векторов, подходит для небольших индексов
+ */
+public class SimplePersistentVectorStore extends SimpleVectorStore implements PersistentVectorStore {
+
+    public SimplePersistentVectorStore(EmbeddingModel embeddingModel) {
+        super(SimpleVectorStore.builder(embeddingModel));
+    }
+}
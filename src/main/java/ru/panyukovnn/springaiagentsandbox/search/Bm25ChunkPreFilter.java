@@ -0,0 +1,129 @@
+package ru.panyukovnn.springaiagentsandbox.search;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Отбрасывает фрагменты, лексически не связанные с вопросом пользователя, до вызова LLM.
+ * Фрагменты ранжируются BM25 по вопросу, остаются фрагменты с оценкой не ниже min-score от лучшей и не больше top-n лучших.
+ * Если ни один фрагмент не содержит слов вопроса, фильтр ничего не отбрасывает: вопрос мог быть сформулирован другими словами.
+ * Фильтр включается явно: для оценки нужны все фрагменты, поэтому map-reduce с фильтром не начинает вызовы LLM до окончания разбиения.
+ */
+@Slf4j
+@Component
+public class Bm25ChunkPreFilter {
+
+    private static final int LOGGED_PREVIEW_LENGTH = 100;
+
+    @Value("${spring-ai-agent-sandbox.map-reduce.pre-filter.enabled}")
+    private boolean enabled;
+    @Value("${spring-ai-agent-sandbox.map-reduce.pre-filter.min-score}")
+    private double minRelativeScore;
+    @Value("${spring-ai-agent-sandbox.map-reduce.pre-filter.top-n}")
+    private int topN;
+
+    /**
+     * @param userQuestion вопрос пользователя
+     * @return true, если фрагменты нужно собрать целиком и отфильтровать до вызова LLM
+     */
+    public boolean isApplicable(String userQuestion) {
+        return enabled && userQuestion != null && !userQuestion.isBlank();
+    }
+
+    /**
+     * Оставляет фрагменты, релевантные вопросу
+     *
+     * @param userQuestion вопрос пользователя
+     * @param chunks       фрагменты данных
+     * @param chunkText    текст фрагмента
+     * @return оставшиеся фрагменты в исходном порядке
+     */
+    public <T> List<T> filter(String userQuestion, List<T> chunks, Function<T, String> chunkText) {
+        if (!isApplicable(userQuestion) || chunks.size() <= 1) {
+            return chunks;
+        }
+
+        double[] scores = score(userQuestion, chunks, chunkText);
+
+        double bestScore = 0;
+        for (double score : scores) {
+            bestScore = Math.max(bestScore, score);
+        }
+
+        if (bestScore == 0) {
+            log.info("Ни один из {} фрагментов не содержит слов вопроса, предварительная фильтрация пропущена", chunks.size());
+
+            return chunks;
+        }
+
+        double scoreThreshold = bestScore * minRelativeScore;
+        List<Integer> retained = IntStream.range(0, chunks.size())
+            .filter(i -> scores[i] >= scoreThreshold)
+            .boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+            .limit(topN > 0 ? topN : Long.MAX_VALUE)
+            .sorted()
+            .toList();
+
+        List<T> retainedChunks = new ArrayList<>(retained.size());
+        for (int i = 0, next = 0; i < chunks.size(); i++) {
+            if (next < retained.size() && retained.get(next) == i) {
+                retainedChunks.add(chunks.get(i));
+                next++;
+            } else {
+                log.info("Фрагмент {} отброшен предварительной фильтрацией, оценка BM25: {} (лучшая: {}): {}",
+                    i, "%.3f".formatted(scores[i]), "%.3f".formatted(bestScore), preview(chunkText.apply(chunks.get(i))));
+            }
+        }
+
+        log.info("Предварительная фильтрация BM25 оставила фрагментов: {} из {}", retainedChunks.size(), chunks.size());
+
+        return retainedChunks;
+    }
+
+    /**
+     * Упорядочивает фрагменты по убыванию оценки BM25, если фильтрация включена - предварительно отбрасывает нерелевантные
+     *
+     * @param userQuestion вопрос пользователя
+     * @param chunks       фрагменты данных
+     * @param chunkText    текст фрагмента
+     * @return фрагменты от наиболее к наименее релевантному, при равной оценке сохраняется исходный порядок
+     */
+    public <T> List<T> rankByScore(String userQuestion, List<T> chunks, Function<T, String> chunkText) {
+        List<T> candidates = filter(userQuestion, chunks, chunkText);
+
+        if (userQuestion == null || userQuestion.isBlank() || candidates.size() <= 1) {
+            return candidates;
+        }
+
+        double[] scores = score(userQuestion, candidates, chunkText);
+
+        return IntStream.range(0, candidates.size())
+            .boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+            .map(candidates::get)
+            .toList();
+    }
+
+    private static <T> double[] score(String userQuestion, List<T> chunks, Function<T, String> chunkText) {
+        Bm25Index.Builder indexBuilder = new Bm25Index.Builder();
+        chunks.forEach(chunk -> indexBuilder.add(chunkText.apply(chunk)));
+
+        return indexBuilder.build().score(userQuestion);
+    }
+
+    private static String preview(String chunk) {
+        String singleLine = chunk.replace('\n', ' ');
+
+        return singleLine.length() <= LOGGED_PREVIEW_LENGTH
+            ? singleLine
+            : singleLine.substring(0, LOGGED_PREVIEW_LENGTH) + "…";
+    }
+}
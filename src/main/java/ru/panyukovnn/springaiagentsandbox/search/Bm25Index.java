@@ -0,0 +1,180 @@
+package ru.panyukovnn.springaiagentsandbox.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory инвертированный индекс с ранжированием BM25.
+ * Списки вхождений хранятся в примитивных массивах: для каждого терма номера документов и частоты терма в них.
+ * Термы приводятся к нижнему регистру и обрезаются до первых символов: грубая замена стемминга для русских словоформ.
+ */
+public class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int STEM_LENGTH = 6;
+
+    private final Map<String, Integer> termIds;
+    private final int[][] postingDocIds;
+    private final int[][] postingFrequencies;
+    private final int[] postingSizes;
+    private final int[] documentLengths;
+    private final double averageDocumentLength;
+
+    private Bm25Index(Builder builder) {
+        this.termIds = builder.termIds;
+        this.postingDocIds = Arrays.copyOf(builder.postingDocIds, builder.termIds.size());
+        this.postingFrequencies = Arrays.copyOf(builder.postingFrequencies, builder.termIds.size());
+        this.postingSizes = Arrays.copyOf(builder.postingSizes, builder.termIds.size());
+        this.documentLengths = Arrays.copyOf(builder.documentLengths, builder.documentCount);
+
+        long totalLength = 0;
+        for (int documentLength : documentLengths) {
+            totalLength += documentLength;
+        }
+        this.averageDocumentLength = documentLengths.length == 0 ? 0 : (double) totalLength / documentLengths.length;
+    }
+
+    /**
+     * @return количество документов в индексе
+     */
+    public int documentCount() {
+        return documentLengths.length;
+    }
+
+    /**
+     * Оценивает все документы индекса относительно запроса
+     *
+     * @param query текст запроса
+     * @return оценки BM25 в порядке добавления документов, 0 - документ не содержит ни одного терма запроса
+     */
+    public double[] score(String query) {
+        double[] scores = new double[documentLengths.length];
+        Set<String> queryTerms = new HashSet<>();
+
+        forEachTerm(query, term -> {
+            Integer termId = termIds.get(term);
+            if (termId == null || !queryTerms.add(term)) {
+                return;
+            }
+
+            int documentFrequency = postingSizes[termId];
+            double idf = Math.log(1 + (documentLengths.length - documentFrequency + 0.5) / (documentFrequency + 0.5));
+
+            int[] docIds = postingDocIds[termId];
+            int[] frequencies = postingFrequencies[termId];
+            for (int i = 0; i < documentFrequency; i++) {
+                int docId = docIds[i];
+                double frequency = frequencies[i];
+                double lengthNorm = 1 - B + B * documentLengths[docId] / averageDocumentLength;
+
+                scores[docId] += idf * frequency * (K1 + 1) / (frequency + K1 * lengthNorm);
+            }
+        });
+
+        return scores;
+    }
+
+    /**
+     * Разбивает текст на термы и передаёт каждый в обработчик
+     */
+    private static void forEachTerm(String text, TermConsumer consumer) {
+        int length = text.length();
+        int termStart = -1;
+
+        for (int i = 0; i <= length; i++) {
+            boolean letterOrDigit = i < length && Character.isLetterOrDigit(text.charAt(i));
+
+            if (letterOrDigit && termStart < 0) {
+                termStart = i;
+            } else if (!letterOrDigit && termStart >= 0) {
+                if (i - termStart >= MIN_TERM_LENGTH) {
+                    consumer.accept(normalize(text, termStart, i));
+                }
+                termStart = -1;
+            }
+        }
+    }
+
+    private static String normalize(String text, int start, int end) {
+        return text.substring(start, Math.min(end, start + STEM_LENGTH)).toLowerCase(Locale.ROOT);
+    }
+
+    @FunctionalInterface
+    private interface TermConsumer {
+
+        void accept(String term);
+    }
+
+    /**
+     * Накапливает документы и строит неизменяемый индекс
+     */
+    public static class Builder {
+
+        private final Map<String, Integer> termIds = new HashMap<>();
+        private int[][] postingDocIds = new int[1024][];
+        private int[][] postingFrequencies = new int[1024][];
+        private int[] postingSizes = new int[1024];
+        private int[] documentLengths = new int[64];
+        private int documentCount;
+
+        /**
+         * Добавляет документ в индекс
+         *
+         * @param text текст документа
+         * @return номер документа
+         */
+        public int add(String text) {
+            int docId = documentCount++;
+            if (docId == documentLengths.length) {
+                documentLengths = Arrays.copyOf(documentLengths, docId * 2);
+            }
+
+            Map<String, int[]> frequencies = new HashMap<>();
+            int[] documentLength = new int[1];
+
+            forEachTerm(text, term -> {
+                frequencies.computeIfAbsent(term, key -> new int[1])[0]++;
+                documentLength[0]++;
+            });
+
+            documentLengths[docId] = documentLength[0];
+            frequencies.forEach((term, frequency) -> addPosting(term, docId, frequency[0]));
+
+            return docId;
+        }
+
+        public Bm25Index build() {
+            return new Bm25Index(this);
+        }
+
+        private void addPosting(String term, int docId, int frequency) {
+            int termId = termIds.computeIfAbsent(term, key -> termIds.size());
+
+            if (termId == postingSizes.length) {
+                int newCapacity = termId * 2;
+                postingDocIds = Arrays.copyOf(postingDocIds, newCapacity);
+                postingFrequencies = Arrays.copyOf(postingFrequencies, newCapacity);
+                postingSizes = Arrays.copyOf(postingSizes, newCapacity);
+            }
+
+            int size = postingSizes[termId];
+            if (postingDocIds[termId] == null) {
+                postingDocIds[termId] = new int[4];
+                postingFrequencies[termId] = new int[4];
+            } else if (size == postingDocIds[termId].length) {
+                postingDocIds[termId] = Arrays.copyOf(postingDocIds[termId], size * 2);
+                postingFrequencies[termId] = Arrays.copyOf(postingFrequencies[termId], size * 2);
+            }
+
+            postingDocIds[termId][size] = docId;
+            postingFrequencies[termId][size] = frequency;
+            postingSizes[termId] = size + 1;
+        }
+    }
+}
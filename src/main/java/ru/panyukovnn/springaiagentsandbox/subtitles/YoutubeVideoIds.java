@@ -0,0 +1,79 @@
+package ru.panyukovnn.springaiagentsandbox.subtitles;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Извлекает идентификатор видео из ссылок YouTube разных видов:
+ * youtube.com/watch?v=ID, youtu.be/ID, youtube.com/shorts/ID, youtube.com/embed/ID, youtube.com/live/ID, а также сам ID
+ */
+public final class YoutubeVideoIds {
+
+    private static final Pattern VIDEO_ID = Pattern.compile("[A-Za-z0-9_-]{11}");
+
+    private YoutubeVideoIds() {
+    }
+
+    /**
+     * @param videoUrl ссылка на видео или его идентификатор
+     * @return идентификатор видео, если ссылка распознана
+     */
+    public static Optional<String> extract(String videoUrl) {
+        if (videoUrl == null) {
+            return Optional.empty();
+        }
+
+        String trimmed = videoUrl.strip();
+        if (VIDEO_ID.matcher(trimmed).matches()) {
+            return Optional.of(trimmed);
+        }
+
+        URI uri;
+        try {
+            uri = new URI(trimmed.contains("://") ? trimmed : "https://" + trimmed);
+        } catch (URISyntaxException e) {
+            return Optional.empty();
+        }
+
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase();
+        String path = uri.getPath() == null ? "" : uri.getPath();
+
+        String candidate = null;
+        if (host.equals("youtu.be") || host.endsWith(".youtu.be")) {
+            candidate = firstPathSegment(path, 0);
+        } else if (host.equals("youtube.com") || host.endsWith(".youtube.com")) {
+            if (path.equals("/watch")) {
+                candidate = queryParameter(uri.getRawQuery(), "v");
+            } else if (path.startsWith("/shorts/") || path.startsWith("/embed/") || path.startsWith("/live/") || path.startsWith("/v/")) {
+                candidate = firstPathSegment(path, 1);
+            }
+        }
+
+        return candidate != null && VIDEO_ID.matcher(candidate).matches()
+            ? Optional.of(candidate)
+            : Optional.empty();
+    }
+
+    private static String firstPathSegment(String path, int index) {
+        String[] segments = path.replaceFirst("^/", "").split("/");
+
+        return segments.length > index ? segments[index] : null;
+    }
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0 && parameter.substring(0, separator).equals(name)) {
+                return parameter.substring(separator + 1);
+            }
+        }
+
+        return null;
+    }
+}
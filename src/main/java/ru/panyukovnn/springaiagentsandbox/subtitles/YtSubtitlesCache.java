@@ -0,0 +1,260 @@
+package ru.panyukovnn.springaiagentsandbox.subtitles;
+
+import jakarta.annotation.PostConstruct;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Дисковый кэш субтитров YouTube: один сжатый gzip файл на идентификатор видео, в начале файла - время загрузки.
+ * Записи старше ttl считаются устаревшими, при превышении max-size удаляются давно не читавшиеся записи.
+ * Одновременные запросы одного видео объединяются: извлечение выполняется один раз, остальные ждут его результата.
+ */
+@Slf4j
+@Component
+public class YtSubtitlesCache {
+
+    private static final String FILE_SUFFIX = ".txt.gz";
+
+    private final Map<String, CompletableFuture<String>> inFlightLoads = new ConcurrentHashMap<>();
+    private final AtomicLong totalSizeBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    @Value("${spring-ai-agent-sandbox.yt-subtitles-cache.dir}")
+    private Path cacheDir;
+    @Value("${spring-ai-agent-sandbox.yt-subtitles-cache.ttl}")
+    private Duration ttl;
+    @Value("${spring-ai-agent-sandbox.yt-subtitles-cache.max-size}")
+    private DataSize maxSize;
+
+    @PostConstruct
+    @SneakyThrows
+    public void init() {
+        Files.createDirectories(cacheDir);
+
+        totalSizeBytes.set(listEntries().stream()
+            .mapToLong(YtSubtitlesCache::sizeOf)
+            .sum());
+    }
+
+    /**
+     * Возвращает субтитры видео из кэша или загружает их. Если ссылка не распознана, субтитры загружаются без кэша
+     *
+     * @param videoUrl ссылка на видео
+     * @param loader   загрузка субтитров
+     * @return субтитры видео
+     */
+    public String getOrLoad(String videoUrl, Supplier<String> loader) {
+        Optional<String> videoId = YoutubeVideoIds.extract(videoUrl);
+        if (videoId.isEmpty()) {
+            log.warn("Не удалось определить идентификатор видео, субтитры загружаются без кэша: {}", videoUrl);
+
+            return loader.get();
+        }
+
+        Optional<String> cachedSubtitles = read(videoId.get());
+        if (cachedSubtitles.isPresent()) {
+            hits.incrementAndGet();
+            log.info("Субтитры видео {} взяты из кэша", videoId.get());
+
+            return cachedSubtitles.get();
+        }
+
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> inFlightLoad = inFlightLoads.putIfAbsent(videoId.get(), load);
+
+        if (inFlightLoad != null) {
+            coalesced.incrementAndGet();
+            log.info("Субтитры видео {} уже загружаются, ожидаю результат", videoId.get());
+
+            return awaitLoad(inFlightLoad);
+        }
+
+        try {
+            // загрузка, завершившаяся между чтением кэша и регистрацией текущей, уже сохранила субтитры
+            Optional<String> loadedSubtitles = read(videoId.get());
+            if (loadedSubtitles.isPresent()) {
+                hits.incrementAndGet();
+                load.complete(loadedSubtitles.get());
+
+                return loadedSubtitles.get();
+            }
+
+            misses.incrementAndGet();
+            String subtitles = loader.get();
+            write(videoId.get(), subtitles);
+            load.complete(subtitles);
+
+            return subtitles;
+        } catch (Throwable e) {
+            // загрузчик может выбросить и проверяемое исключение (например, через @SneakyThrows): ожидающие не должны зависнуть
+            load.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            inFlightLoads.remove(videoId.get(), load);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getSizeBytes() {
+        return totalSizeBytes.get();
+    }
+
+    private static String awaitLoad(CompletableFuture<String> inFlightLoad) {
+        try {
+            return inFlightLoad.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+
+    private Optional<String> read(String videoId) {
+        Path file = cacheDir.resolve(videoId + FILE_SUFFIX);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+            Instant createdAt = Instant.ofEpochSecond(in.readLong());
+
+            if (createdAt.plus(ttl).isBefore(Instant.now())) {
+                in.close();
+                remove(file);
+
+                return Optional.empty();
+            }
+
+            String subtitles = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+
+            // время изменения файла используется как время последнего чтения для вытеснения
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+
+            return Optional.of(subtitles);
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать субтитры из кэша: {}", file, e);
+
+            return Optional.empty();
+        }
+    }
+
+    private void write(String videoId, String subtitles) {
+        Path file = cacheDir.resolve(videoId + FILE_SUFFIX);
+        Path tempFile = cacheDir.resolve(videoId + FILE_SUFFIX + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeLong(Instant.now().getEpochSecond());
+                out.write(subtitles.getBytes(StandardCharsets.UTF_8));
+            }
+
+            long previousSize = sizeOf(file);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            totalSizeBytes.addAndGet(sizeOf(file) - previousSize);
+
+            log.info("Субтитры видео {} сохранены в кэш, сжатый размер: {} байт, символов: {}", videoId, sizeOf(file), subtitles.length());
+        } catch (IOException e) {
+            log.warn("Не удалось сохранить субтитры в кэш: {}", file, e);
+
+            return;
+        }
+
+        if (totalSizeBytes.get() > maxSize.toBytes()) {
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        List<Path> entries = listEntries().stream()
+            .sorted(Comparator.comparing(YtSubtitlesCache::lastModified))
+            .toList();
+
+        long targetSize = maxSize.toBytes() * 9 / 10;
+        for (Path entry : entries) {
+            if (totalSizeBytes.get() <= targetSize) {
+                break;
+            }
+
+            remove(entry);
+        }
+    }
+
+    private void remove(Path file) {
+        long size = sizeOf(file);
+
+        try {
+            if (Files.deleteIfExists(file)) {
+                totalSizeBytes.addAndGet(-size);
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось удалить субтитры из кэша: {}", file, e);
+        }
+    }
+
+    @SneakyThrows
+    private List<Path> listEntries() {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            return files
+                .filter(path -> path.getFileName().toString().endsWith(FILE_SUFFIX))
+                .toList();
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
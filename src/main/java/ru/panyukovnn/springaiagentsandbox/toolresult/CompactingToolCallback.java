@@ -0,0 +1,42 @@
+package ru.panyukovnn.springaiagentsandbox.toolresult;
+
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+/**
+ * Обёртка инструмента, сжимающая его результат перед возвратом в модель
+ */
+class CompactingToolCallback implements ToolCallback {
+
+    private final ToolCallback delegate;
+    private final ToolResultCompactor compactor;
+    private final String question;
+
+    CompactingToolCallback(ToolCallback delegate, ToolResultCompactor compactor, String question) {
+        this.delegate = delegate;
+        this.compactor = compactor;
+        this.question = question;
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return compactor.compact(getToolDefinition().name(), question, delegate.call(toolInput));
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        return compactor.compact(getToolDefinition().name(), question, delegate.call(toolInput, toolContext));
+    }
+}
@@ -0,0 +1,76 @@
+package ru.panyukovnn.springaiagentsandbox.toolresult;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import ru.panyukovnn.springaiagentsandbox.config.ToolResultProperties;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Удаляет из json результата поля, которые не нужны модели (strip-fields), и пустые значения,
+ * а также убирает форматирование. Результаты не в формате json не изменяются
+ */
+@Slf4j
+@Component
+@Order(100)
+@RequiredArgsConstructor
+public class JsonFieldStripper implements ToolResultProcessor {
+
+    private final ObjectMapper objectMapper;
+    private final ToolResultProperties toolResultProperties;
+
+    @Override
+    public String process(String result, ToolResultContext context) {
+        String trimmed = result.strip();
+        if (!trimmed.startsWith("{") && !trimmed.startsWith("[")) {
+            return result;
+        }
+
+        try {
+            JsonNode root = objectMapper.readTree(trimmed);
+            strip(root);
+
+            return objectMapper.writeValueAsString(root);
+        } catch (JsonProcessingException e) {
+            log.debug("Результат инструмента {} не является json, поля не удаляются", context.toolName());
+
+            return result;
+        }
+    }
+
+    private void strip(JsonNode node) {
+        if (node instanceof ObjectNode objectNode) {
+            Iterator<Map.Entry<String, JsonNode>> fields = objectNode.fields();
+
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+
+                if (toolResultProperties.getStripFields().contains(field.getKey())) {
+                    fields.remove();
+                    continue;
+                }
+
+                strip(field.getValue());
+                if (isEmpty(field.getValue())) {
+                    fields.remove();
+                }
+            }
+        } else if (node instanceof ArrayNode arrayNode) {
+            arrayNode.forEach(this::strip);
+        }
+    }
+
+    private static boolean isEmpty(JsonNode node) {
+        return node.isNull()
+            || (node.isTextual() && node.asText().isBlank())
+            || (node.isContainerNode() && node.isEmpty());
+    }
+}
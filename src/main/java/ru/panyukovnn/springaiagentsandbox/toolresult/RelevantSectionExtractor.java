@@ -0,0 +1,199 @@
+package ru.panyukovnn.springaiagentsandbox.toolresult;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import ru.panyukovnn.springaiagentsandbox.search.Bm25Index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Если результат не укладывается в бюджет, оставляет части, наиболее релевантные вопросу пользователя по BM25.
+ * В json результате отбираются элементы самого большого массива, в тексте - абзацы, строки или предложения.
+ * Отобранные части сохраняют исходный порядок, пропуски в тексте отмечаются многоточием
+ */
+@Slf4j
+@Component
+@Order(200)
+@RequiredArgsConstructor
+public class RelevantSectionExtractor implements ToolResultProcessor {
+
+    private static final String GAP_MARKER = "\n[...]\n";
+    private static final int MIN_SECTIONS = 2;
+
+    private final ObjectMapper objectMapper;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    @Override
+    public String process(String result, ToolResultContext context) {
+        if (!StringUtils.hasText(context.question()) || tokenCountEstimator.estimate(result) <= context.budgetTokens()) {
+            return result;
+        }
+
+        String trimmed = result.strip();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            try {
+                return extractFromJson(objectMapper.readTree(trimmed), context);
+            } catch (JsonProcessingException e) {
+                log.debug("Результат инструмента {} не является json, отбираются части текста", context.toolName());
+            }
+        }
+
+        return extractFromText(result, context);
+    }
+
+    private String extractFromJson(JsonNode root, ToolResultContext context) throws JsonProcessingException {
+        ArrayNode largestArray = findLargestArray(root);
+        if (largestArray == null || largestArray.size() < MIN_SECTIONS) {
+            return objectMapper.writeValueAsString(root);
+        }
+
+        List<String> elements = new ArrayList<>(largestArray.size());
+        for (JsonNode element : largestArray) {
+            elements.add(objectMapper.writeValueAsString(element));
+        }
+
+        ArrayNode elementsCopy = largestArray.deepCopy();
+        largestArray.removeAll();
+        int envelopeTokens = tokenCountEstimator.estimate(objectMapper.writeValueAsString(root));
+
+        boolean[] selected = selectRelevant(elements, context.question(), context.budgetTokens() - envelopeTokens);
+        if (noneSelected(selected)) {
+            largestArray.addAll(elementsCopy);
+
+            return objectMapper.writeValueAsString(root);
+        }
+
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                largestArray.add(elementsCopy.get(i));
+            }
+        }
+
+        log.info("Из результата инструмента {} оставлено элементов: {} из {}", context.toolName(), largestArray.size(), elements.size());
+
+        return objectMapper.writeValueAsString(root);
+    }
+
+    private String extractFromText(String result, ToolResultContext context) {
+        List<String> sections = splitIntoSections(result);
+        if (sections.size() < MIN_SECTIONS) {
+            return result;
+        }
+
+        boolean[] selected = selectRelevant(sections, context.question(), context.budgetTokens());
+        if (noneSelected(selected)) {
+            return result;
+        }
+
+        StringBuilder extracted = new StringBuilder();
+        int keptSections = 0;
+        boolean gap = false;
+        for (int i = 0; i < sections.size(); i++) {
+            if (!selected[i]) {
+                gap = true;
+                continue;
+            }
+
+            if (gap) {
+                extracted.append(GAP_MARKER);
+            } else if (!extracted.isEmpty()) {
+                extracted.append('\n');
+            }
+            extracted.append(sections.get(i));
+            keptSections++;
+            gap = false;
+        }
+        if (gap) {
+            extracted.append(GAP_MARKER);
+        }
+
+        log.info("Из результата инструмента {} оставлено частей текста: {} из {}", context.toolName(), keptSections, sections.size());
+
+        return extracted.toString();
+    }
+
+    /**
+     * Отмечает части с наибольшей оценкой BM25, суммарно укладывающиеся в бюджет. Части без совпадений с вопросом не отбираются
+     */
+    private boolean[] selectRelevant(List<String> sections, String question, int budgetTokens) {
+        Bm25Index.Builder indexBuilder = new Bm25Index.Builder();
+        sections.forEach(indexBuilder::add);
+        double[] scores = indexBuilder.build().score(question);
+
+        boolean[] selected = new boolean[sections.size()];
+        int remainingTokens = budgetTokens;
+
+        int[] byScore = IntStream.range(0, sections.size())
+            .filter(i -> scores[i] > 0)
+            .boxed()
+            .sorted(Comparator.comparingDouble((Integer i) -> scores[i]).reversed())
+            .mapToInt(Integer::intValue)
+            .toArray();
+
+        for (int i : byScore) {
+            int sectionTokens = tokenCountEstimator.estimate(sections.get(i));
+            if (sectionTokens <= remainingTokens) {
+                selected[i] = true;
+                remainingTokens -= sectionTokens;
+            }
+        }
+
+        return selected;
+    }
+
+    private static boolean noneSelected(boolean[] selected) {
+        for (boolean sectionSelected : selected) {
+            if (sectionSelected) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Делит текст на абзацы, если абзац один - на строки, если строка одна - на предложения
+     */
+    private static List<String> splitIntoSections(String text) {
+        for (String separator : List.of("\\n\\s*\\n", "\\n", "(?<=[.!?])\\s+")) {
+            List<String> sections = Arrays.stream(text.split(separator))
+                .filter(StringUtils::hasText)
+                .toList();
+
+            if (sections.size() >= MIN_SECTIONS) {
+                return sections;
+            }
+        }
+
+        return List.of(text);
+    }
+
+    /**
+     * Ищет массив с наибольшим объёмом содержимого, как правило это список результатов
+     */
+    private static ArrayNode findLargestArray(JsonNode node) {
+        ArrayNode largest = node instanceof ArrayNode arrayNode ? arrayNode : null;
+
+        for (JsonNode child : node) {
+            ArrayNode childLargest = findLargestArray(child);
+            if (childLargest != null && (largest == null || childLargest.toString().length() > largest.toString().length())) {
+                largest = childLargest;
+            }
+        }
+
+        return largest;
+    }
+}
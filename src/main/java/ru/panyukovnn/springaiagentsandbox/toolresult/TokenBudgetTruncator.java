@@ -0,0 +1,41 @@
+package ru.panyukovnn.springaiagentsandbox.toolresult;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Последний шаг: обрезает результат, который после остальных шагов всё ещё не укладывается в бюджет
+ */
+@Slf4j
+@Component
+@Order(300)
+public class TokenBudgetTruncator implements ToolResultProcessor {
+
+    private static final double SHRINK_RATIO = 0.9;
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    @Override
+    public String process(String result, ToolResultContext context) {
+        int tokens = tokenCountEstimator.estimate(result);
+        if (tokens <= context.budgetTokens()) {
+            return result;
+        }
+
+        // длина оценивается по среднему числу символов на токен и уменьшается, пока не уложится в бюджет
+        int length = (int) ((long) result.length() * context.budgetTokens() / tokens);
+        String truncated = result.substring(0, length);
+
+        while (length > 0 && tokenCountEstimator.estimate(truncated) > context.budgetTokens()) {
+            length = (int) (length * SHRINK_RATIO);
+            truncated = result.substring(0, length);
+        }
+
+        log.info("Результат инструмента {} обрезан до {} токенов, было: {}", context.toolName(), context.budgetTokens(), tokens);
+
+        return truncated;
+    }
+}
@@ -0,0 +1,102 @@
+package ru.panyukovnn.springaiagentsandbox.toolresult;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.support.ToolCallbacks;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.stereotype.Component;
+import ru.panyukovnn.springaiagentsandbox.config.ToolResultProperties;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Сжимает результаты инструментов до бюджета токенов, заданного для каждого инструмента.
+ * Результат проходит через все {@link ToolResultProcessor} по порядку. Если полный результат не укладывался в бюджет,
+ * он сохраняется в {@link ToolResultStore}, а модель получает идентификатор для его постраничной загрузки
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ToolResultCompactor {
+
+    private static final String SPILL_NOTE = "\n\n[Результат сокращён: %d из %d токенов. " +
+        "Полный результат (%d символов) можно получить инструментом fetchToolResult с handle \"%s\"]";
+
+    private final ObjectMapper objectMapper;
+    private final ToolResultStore toolResultStore;
+    private final ToolResultProperties toolResultProperties;
+    private final List<ToolResultProcessor> toolResultProcessors;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    /**
+     * Создаёт инструменты из методов с аннотацией @Tool, результаты которых сжимаются относительно вопроса пользователя
+     *
+     * @param question текущий вопрос пользователя
+     * @param tools    объекты с методами-инструментами
+     * @return инструменты для передачи в ChatClient
+     */
+    public ToolCallback[] compacting(String question, Object... tools) {
+        return Arrays.stream(ToolCallbacks.from(tools))
+            .map(toolCallback -> new CompactingToolCallback(toolCallback, this, question))
+            .toArray(ToolCallback[]::new);
+    }
+
+    /**
+     * Сжимает результат инструмента
+     *
+     * @param toolName  имя инструмента
+     * @param question  текущий вопрос пользователя
+     * @param rawResult результат инструмента
+     * @return результат, укладывающийся в бюджет инструмента, с идентификатором полного результата, если он был сокращён
+     */
+    public String compact(String toolName, String question, String rawResult) {
+        if (rawResult == null) {
+            return null;
+        }
+
+        String result = unwrapJsonString(rawResult);
+        int budgetTokens = toolResultProperties.budgetFor(toolName);
+        ToolResultContext context = new ToolResultContext(toolName, question, budgetTokens);
+
+        String compacted = result;
+        for (ToolResultProcessor toolResultProcessor : toolResultProcessors) {
+            compacted = toolResultProcessor.process(compacted, context);
+        }
+
+        int originalTokens = tokenCountEstimator.estimate(result);
+        if (originalTokens <= budgetTokens) {
+            return compacted;
+        }
+
+        int compactedTokens = tokenCountEstimator.estimate(compacted);
+        String handle = toolResultStore.save(toolName, result);
+
+        log.info("Результат инструмента {} сжат: {} -> {} токенов", toolName, originalTokens, compactedTokens);
+
+        return compacted + SPILL_NOTE.formatted(compactedTokens, originalTokens, result.length(), handle);
+    }
+
+    /**
+     * Spring AI сериализует строковый результат метода-инструмента в json, поэтому текст (например, субтитры) приходит
+     * строкой в кавычках с экранированными переводами строк. Для поиска абзацев и обрезки нужен исходный текст
+     */
+    private String unwrapJsonString(String result) {
+        if (!result.startsWith("\"")) {
+            return result;
+        }
+
+        try {
+            JsonNode node = objectMapper.readTree(result);
+
+            return node.isTextual() ? node.textValue() : result;
+        } catch (JsonProcessingException e) {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ru.panyukovnn.springaiagentsandbox.toolresult;
+
+/**
+ * Контекст обработки результата инструмента
+ *
+ * @param toolName     имя инструмента
+ * @param question     текущий вопрос пользователя, по нему выбираются релевантные части результата
+ * @param budgetTokens бюджет токенов результата
+ */
+public record ToolResultContext(String toolName, String question, int budgetTokens) {
+}
@@ -0,0 +1,15 @@
+package ru.panyukovnn.springaiagentsandbox.toolresult;
+
+/**
+ * Шаг сжатия результата инструмента. Шаги выполняются по порядку {@link org.springframework.core.annotation.Order},
+ * каждый получает результат предыдущего. Новый шаг подключается объявлением бина, реализующего интерфейс
+ */
+public interface ToolResultProcessor {
+
+    /**
+     * @param result  результат инструмента или предыдущего шага
+     * @param context контекст обработки
+     * @return обработанный результат; если шаг не применим - исходный
+     */
+    String process(String result, ToolResultContext context);
+}
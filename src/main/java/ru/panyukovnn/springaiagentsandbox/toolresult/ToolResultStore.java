@@ -0,0 +1,114 @@
+package ru.panyukovnn.springaiagentsandbox.toolresult;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.panyukovnn.springaiagentsandbox.config.ToolResultProperties;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Локальное хранилище полных результатов инструментов, которые были сокращены перед возвратом в модель.
+ * Результат доступен по идентификатору, пока не устареет; устаревшие результаты удаляются при запуске
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ToolResultStore {
+
+    private static final String FILE_SUFFIX = ".txt";
+    private static final Pattern HANDLE_PATTERN = Pattern.compile("[a-zA-Z0-9_-]+-[0-9a-f]{32}");
+
+    private final ToolResultProperties toolResultProperties;
+
+    @PostConstruct
+    @SneakyThrows
+    public void init() {
+        Files.createDirectories(toolResultProperties.getStoreDir());
+
+        Instant expiredBefore = Instant.now().minus(toolResultProperties.getStoreTtl());
+        try (Stream<Path> files = Files.list(toolResultProperties.getStoreDir())) {
+            files.filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX))
+                .filter(file -> lastModified(file).isBefore(expiredBefore))
+                .forEach(ToolResultStore::delete);
+        }
+    }
+
+    /**
+     * Сохраняет полный результат инструмента
+     *
+     * @param toolName имя инструмента, входит в идентификатор
+     * @param result   полный результат
+     * @return идентификатор для загрузки результата
+     */
+    @SneakyThrows
+    public String save(String toolName, String result) {
+        String handle = toolName.replaceAll("[^a-zA-Z0-9_-]", "_") + "-" + UUID.randomUUID().toString().replace("-", "");
+        Files.writeString(fileOf(handle), result, StandardCharsets.UTF_8);
+
+        log.info("Полный результат инструмента {} сохранён, идентификатор: {}, символов: {}", toolName, handle, result.length());
+
+        return handle;
+    }
+
+    /**
+     * @param handle идентификатор, полученный при сохранении
+     * @return полный результат или пустой Optional, если идентификатор неизвестен или результат устарел
+     */
+    public Optional<String> load(String handle) {
+        if (handle == null || !HANDLE_PATTERN.matcher(handle).matches()) {
+            return Optional.empty();
+        }
+
+        Path file = fileOf(handle);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(Files.readString(file, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать сохранённый результат инструмента: {}", file, e);
+
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param handle идентификатор, полученный при сохранении
+     * @return имя инструмента, результат которого сохранён
+     */
+    public String toolNameOf(String handle) {
+        return handle.substring(0, handle.lastIndexOf('-'));
+    }
+
+    private Path fileOf(String handle) {
+        return toolResultProperties.getStoreDir().resolve(handle + FILE_SUFFIX);
+    }
+
+    private static Instant lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant();
+        } catch (IOException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить устаревший результат инструмента: {}", file, e);
+        }
+    }
+}
@@ -4,34 +4,30 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
+import ru.panyukovnn.springaiagentsandbox.client.tavily.TavilySearchClient;
 
-import java.util.Map;
+import java.util.List;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class TavilyWebSearchTool {
 
-    private final RestClient restClient = RestClient.create(); // TODO
-
-    @Value("${spring-ai-agent-sandbox.api-keys.tavily}")
-    private String tavilyApiKey;
+    private final TavilySearchClient tavilySearchClient;
 
     @Tool(description = "Search the web for current information")
     public String apply(@ToolParam(description = "Web search request") String query) {
+        log.info("Поиск в интернете: {}", query);
+
+        return tavilySearchClient.search(query);
+    }
+
+    @Tool(description = "Search the web for several requests at once. Use it instead of repeated single searches when a topic needs " +
+        "several queries: they run concurrently and the results are merged without duplicates")
+    public String searchMany(@ToolParam(description = "Web search requests") List<String> queries) {
+        log.info("Поиск в интернете по нескольким запросам: {}", queries);
 
-        return restClient.post()
-            .uri("https://api.tavily.com/search")
-            .header("Content-Type", "application/json")
-            .body(Map.of(
-                "api_key", tavilyApiKey,
-                "query", query,
-                "max_results", 5
-            ))
-            .retrieve()
-            .body(String.class);
+        return tavilySearchClient.searchAll(queries);
     }
 }
@@ -1,7 +1,5 @@
 package ru.panyukovnn.springaiagentsandbox.tools;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Nullable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -9,28 +7,36 @@ import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.stereotype.Service;
 import ru.panyukovnn.springaiagentsandbox.client.feign.TgChatsCollectorClient;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
 import ru.panyukovnn.springaiagentsandbox.dto.common.CommonRequest;
 import ru.panyukovnn.springaiagentsandbox.dto.common.CommonResponse;
 import ru.panyukovnn.springaiagentsandbox.dto.searchchat.SearchChatsResponse;
 import ru.panyukovnn.springaiagentsandbox.dto.searchchat.SearchPrivateChatRequest;
 import ru.panyukovnn.springaiagentsandbox.dto.searchchat.SearchPublicChannelByIdRequest;
-import ru.panyukovnn.springaiagentsandbox.dto.searchchathistory.SearchChatHistoryRequest;
-import ru.panyukovnn.springaiagentsandbox.dto.searchchathistory.SearchChatHistoryResponse;
+import ru.panyukovnn.springaiagentsandbox.history.LocalChatHistoryService;
 import ru.panyukovnn.springaiagentsandbox.workflows.MapReduceAnswerWorkflow;
 import ru.panyukovnn.springaiagentsandbox.workflows.RagAnswerWorkflow;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class TgChatsCollectorTool {
 
-    private final ObjectMapper objectMapper;
+    private static final String HISTORY_LOAD_ERROR_MESSAGE = "Не удалось загрузить переписку из телеграм";
+
     private final RagAnswerWorkflow ragAnswerWorkflow;
     private final TgChatsCollectorClient tgChatsCollectorClient;
+    private final LocalChatHistoryService localChatHistoryService;
     private final MapReduceAnswerWorkflow mapReduceAnswerWorkflow;
 
     // TODO добавить метод, который просто извлекает небольшую переписку
@@ -85,43 +91,83 @@ public class TgChatsCollectorTool {
         @ToolParam(required = false, description = "Вопрос пользователя для применения к переписке")
         String userQuestion,
         @ToolParam(required = false, description = "Признак использования RAG индексирования материалов, указывается, только если явно упомянут пользователем")
-        Boolean useRag) throws JsonProcessingException {
+        Boolean useRag,
+        @ToolParam(required = false, description = "Признак точечного вопроса (когда, кто, где, какая ссылка), для ответа на который достаточно одного найденного места в переписке")
+        Boolean lookupQuestion) {
 
-        SearchChatHistoryResponse searchChatHistoryResponse = fetchSearchChatHistoryResponse(chatId, topicId, dateFrom);
+        Stream<TgMessageDto> history = openChatHistoryStream(chatId, topicId, dateFrom);
 
-        if (searchChatHistoryResponse == null) {
-            return "Не удалось загрузить переписку из телеграм";
+        if (history == null) {
+            return HISTORY_LOAD_ERROR_MESSAGE;
         }
 
-        String fullChatText = objectMapper.writeValueAsString(searchChatHistoryResponse.getMessages());
+        AtomicReference<RuntimeException> historyFailure = new AtomicReference<>();
+
+        try (Stream<TgMessageDto> messages = rememberFailure(history, historyFailure)) {
+            if (Boolean.TRUE.equals(useRag)) {
+                return ragAnswerWorkflow.answerWithRag(chatId, topicId, dateFrom, userQuestion, messages.toList())
+                    .orElse("В представленной переписке нет данных для ответа на ваш вопрос");
+            }
+
+            if (Boolean.TRUE.equals(lookupQuestion)) {
+                return mapReduceAnswerWorkflow.mapReduceWithEarlyExit(userQuestion, messages)
+                    .orElse("В представленной переписке нет данных для ответа на ваш вопрос");
+            }
 
-        if (Boolean.TRUE.equals(useRag)) {
-            return ragAnswerWorkflow.answerWithRag(userQuestion, fullChatText)
+            return mapReduceAnswerWorkflow.mapReduce(userQuestion, messages)
                 .orElse("В представленной переписке нет данных для ответа на ваш вопрос");
+        } catch (RuntimeException e) {
+            // история читается лениво, поэтому ошибка её загрузки проявляется уже во время обработки сообщений
+            if (historyFailure.get() == null) {
+                throw e;
+            }
+
+            log.error("Не удалось загрузить переписку чата {} в процессе обработки", chatId, historyFailure.get());
+
+            return HISTORY_LOAD_ERROR_MESSAGE;
         }
+    }
 
-        return mapReduceAnswerWorkflow.mapReduce(userQuestion, fullChatText)
-            .orElse("В представленной переписке нет данных для ответа на ваш вопрос");
+    /**
+     * Запоминает ошибку, возникшую при чтении самого потока истории. Ошибки обработчиков сообщений не запоминаются
+     */
+    private static Stream<TgMessageDto> rememberFailure(Stream<TgMessageDto> messages, AtomicReference<RuntimeException> failure) {
+        Spliterator<TgMessageDto> spliterator = messages.spliterator();
+
+        Spliterator<TgMessageDto> rememberingSpliterator = new Spliterators.AbstractSpliterator<>(spliterator.estimateSize(), spliterator.characteristics()) {
+
+            private RuntimeException consumerFailure;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super TgMessageDto> action) {
+                try {
+                    return spliterator.tryAdvance(message -> {
+                        try {
+                            action.accept(message);
+                        } catch (RuntimeException e) {
+                            consumerFailure = e;
+
+                            throw e;
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    if (e != consumerFailure) {
+                        failure.compareAndSet(null, e);
+                    }
+
+                    throw e;
+                }
+            }
+        };
+
+        return StreamSupport.stream(rememberingSpliterator, false)
+            .onClose(messages::close);
     }
 
     @Nullable
-    private SearchChatHistoryResponse fetchSearchChatHistoryResponse(Long chatId, Long topicId, LocalDate dateFrom) {
-        log.info("Вызываю загрузку сообщений из телеграм чата: {}. Топик: {}. Начиная с даты: {}", chatId, topicId, dateFrom);
-
+    private Stream<TgMessageDto> openChatHistoryStream(Long chatId, Long topicId, LocalDate dateFrom) {
         try {
-            SearchChatHistoryRequest searchChatHistoryRequest = SearchChatHistoryRequest.builder()
-                .chatId(chatId)
-                .topicId(topicId)
-                .dateFrom(LocalDateTime.of(dateFrom, LocalTime.MIN))
-                .build();
-
-            CommonRequest<SearchChatHistoryRequest> commonRequest = CommonRequest.<SearchChatHistoryRequest>builder()
-                .body(searchChatHistoryRequest)
-                .build();
-
-            CommonResponse<SearchChatHistoryResponse> commonResponse = tgChatsCollectorClient.postSearchChatHistory(commonRequest);
-
-            return commonResponse.getBody();
+            return localChatHistoryService.history(chatId, topicId, LocalDateTime.of(dateFrom, LocalTime.MIN));
         } catch (Exception e) {
             log.error(e.getMessage(), e);
 
@@ -1,18 +1,25 @@
 package ru.panyukovnn.springaiagentsandbox.tools;
 
-import lombok.SneakyThrows;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.panyukovnn.springaiagentsandbox.cli.CliCallResult;
+import ru.panyukovnn.springaiagentsandbox.cli.CliJarExecutor;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class TgCollectorCliCallTool {
 
+    private final CliJarExecutor cliJarExecutor;
+
+    @Value("${spring-ai-agent-sandbox.cli-tools.article-parser-jar}")
+    private String jarPath;
+
     @Tool(description = "Load subtitles of Youtube video by link")
     String getYoutubeVideoSubtitles(String youtubeVideoUrl) {
         log.info("Начинаю загрузку субтитров по ссылке: {}", youtubeVideoUrl);
@@ -20,35 +27,13 @@ public class TgCollectorCliCallTool {
         return loadSubtitles(youtubeVideoUrl);
     }
 
-    @SneakyThrows
     private String loadSubtitles(String videoUrl) {
-        ProcessBuilder pb = new ProcessBuilder();
-        pb.command().add("java");
-        pb.command().add("-jar");
-
-        pb.command().add("/Users/nikolay/java/shell-services/article-parser-1.0.0-RC2.jar");
-        pb.command().add(videoUrl);
-
-        // Объединяем stderr в stdout, чтобы всё читать из одного потока
-        pb.redirectErrorStream(true);
-
-        Process process = pb.start();
-
-        StringBuilder output = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(
-            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append(System.lineSeparator());
-            }
-        }
+        CliCallResult result = cliJarExecutor.execute(jarPath, List.of(videoUrl), line -> log.debug("{}", line));
 
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-            throw new IllegalStateException("Возникла ошибка при извлечении субтитров из видео. videoUrl: %s. exitCode: %s. Текст: %s".formatted(videoUrl, exitCode, output));
+        if (result.exitCode() != 0) {
+            throw new IllegalStateException("Возникла ошибка при извлечении субтитров из видео. videoUrl: %s. exitCode: %s. Текст: %s".formatted(videoUrl, result.exitCode(), result.output()));
         }
 
-        return output.toString();
+        return result.output();
     }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package ru.panyukovnn.springaiagentsandbox.tools;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.stereotype.Service;
+import ru.panyukovnn.springaiagentsandbox.config.ToolResultProperties;
+import ru.panyukovnn.springaiagentsandbox.toolresult.ToolResultStore;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ToolResultFetchTool {
+
+    private static final double SHRINK_RATIO = 0.9;
+
+    private final ToolResultStore toolResultStore;
+    private final ToolResultProperties toolResultProperties;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    @Tool(description = "Fetch a page of the full result of a previous tool call that was shortened. " +
+        "Use it only when the shortened result is not enough to answer")
+    public String fetchToolResult(@ToolParam(description = "Handle from the note of the shortened result") String handle,
+                                  @ToolParam(description = "Character offset to start the page from, 0 for the first page", required = false) Integer offset) {
+        log.info("Загрузка сохранённого результата инструмента: {}, смещение: {}", handle, offset);
+
+        String result = toolResultStore.load(handle).orElse(null);
+        if (result == null) {
+            return "Result with handle \"%s\" is not found or has expired".formatted(handle);
+        }
+
+        int pageStart = offset == null ? 0 : Math.clamp(offset, 0, result.length());
+        int pageEnd = pageEnd(result, pageStart, toolResultProperties.budgetFor(toolResultStore.toolNameOf(handle)));
+
+        String nextPage = pageEnd < result.length()
+            ? "next offset: %d".formatted(pageEnd)
+            : "last page";
+
+        return "[characters %d-%d of %d, %s]%n%s".formatted(pageStart, pageEnd, result.length(), nextPage, result.substring(pageStart, pageEnd));
+    }
+
+    /**
+     * Страница укладывается в бюджет токенов инструмента, результат которого сохранён.
+     * Длина оценивается по среднему числу символов на токен в результате и уменьшается, пока страница не уложится в бюджет
+     */
+    private int pageEnd(String result, int pageStart, int budgetTokens) {
+        int resultTokens = Math.max(tokenCountEstimator.estimate(result), 1);
+        int pageLength = (int) Math.min(result.length() - pageStart, (long) result.length() * budgetTokens / resultTokens);
+
+        while (pageLength > 1 && tokenCountEstimator.estimate(result.substring(pageStart, pageStart + pageLength)) > budgetTokens) {
+            pageLength = (int) (pageLength * SHRINK_RATIO);
+        }
+
+        return pageStart + Math.max(pageLength, Math.min(1, result.length() - pageStart));
+    }
+}
@@ -0,0 +1,91 @@
+package ru.panyukovnn.springaiagentsandbox.transcript;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.stereotype.Component;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Разбивает список сообщений на фрагменты транскрипта не больше заданного количества токенов.
+ * Сообщение никогда не разрывается между фрагментами, каждая строка токенизируется один раз, без обратного декодирования.
+ * <p>
+ * Сначала строки всех сообщений выводятся как один фрагмент и их токены считаются, для длинной истории - параллельно на всех ядрах.
+ * Затем сообщения раскладываются по фрагментам с подсчитанными токенами. Повторно токенизируются только строки,
+ * которые в новом фрагменте выглядят иначе: первая строка с датой, первое появление отправителя, цитата ответа.
+ */
+@Slf4j
+@Component
+public class MessageTokenSplitter {
+
+    /**
+     * Начиная с этого количества строк токены считаются параллельно
+     */
+    private static final int PARALLEL_THRESHOLD = 2000;
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    /**
+     * @param messages       сообщения в хронологическом порядке
+     * @param maxChunkTokens максимальный размер фрагмента; сообщение, которое не помещается целиком, занимает отдельный фрагмент
+     * @return фрагменты с количеством токенов и сообщений
+     */
+    public List<TranscriptChunk> split(List<TgMessageDto> messages, int maxChunkTokens) {
+        List<String> lines = renderLines(messages);
+        Map<String, Integer> lineTokens = countTokens(lines);
+
+        List<TranscriptChunk> chunks = new ArrayList<>();
+        TranscriptChunkBuilder chunkBuilder = new TranscriptChunkBuilder(maxChunkTokens, line -> {
+            Integer cachedTokens = lineTokens.get(line);
+
+            return cachedTokens != null ? cachedTokens : tokenCountEstimator.estimate(line);
+        }, chunks::add);
+
+        messages.forEach(chunkBuilder::add);
+        chunkBuilder.flush();
+
+        log.info("Сообщений: {} разбито на фрагменты: {} по {} токенов", lines.size(), chunks.size(), maxChunkTokens);
+
+        return chunks;
+    }
+
+    private static List<String> renderLines(List<TgMessageDto> messages) {
+        StringBuilder lineBuffer = new StringBuilder();
+        TgTranscriptWriter writer = new TgTranscriptWriter(lineBuffer);
+        List<String> lines = new ArrayList<>(messages.size());
+
+        for (TgMessageDto message : messages) {
+            lineBuffer.setLength(0);
+
+            if (writer.append(message)) {
+                lines.add(lineBuffer.toString());
+            }
+        }
+
+        return lines;
+    }
+
+    private Map<String, Integer> countTokens(List<String> lines) {
+        IntStream indexes = IntStream.range(0, lines.size());
+        if (lines.size() >= PARALLEL_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+
+        int[] tokens = indexes
+            .map(i -> tokenCountEstimator.estimate(lines.get(i)))
+            .toArray();
+
+        Map<String, Integer> lineTokens = HashMap.newHashMap(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            lineTokens.put(lines.get(i), tokens[i]);
+        }
+
+        return lineTokens;
+    }
+}
@@ -0,0 +1,155 @@
+package ru.panyukovnn.springaiagentsandbox.transcript;
+
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Пишет переписку в компактный текстовый формат, по строке на сообщение:
+ * <pre>
+ * [2024-05-12]
+ * #1001 14:03 u1=123456: текст сообщения
+ * #1002 14:05 u2=789012 >#1001: ответ на сообщение 1001
+ * #1003 14:07 u1: строка 1\nстрока 2
+ * #1004 14:10 u3=345678: объявление, повторённое 5 раз [x5]
+ * </pre>
+ * Дата выводится отдельной строкой при смене дня, отправители заменяются короткими псевдонимами,
+ * идентификатор отправителя указывается только при первом появлении во фрагменте.
+ * Ответ ссылается на сообщение по идентификатору, текст исходного сообщения цитируется кратко,
+ * только если оно не попало во фрагмент.
+ * <p>
+ * Писатель хранит состояние (псевдонимы, текущий день, видимые сообщения), поэтому сообщения нужно передавать в хронологическом порядке.
+ * Если транскрипт делится на фрагменты, которые LLM увидит независимо, перед каждым фрагментом вызывается {@link #startFragment()}.
+ */
+public class TgTranscriptWriter {
+
+    private static final int MAX_REPLY_QUOTE_LENGTH = 100;
+
+    private final StringBuilder target;
+    private final Map<Long, Integer> senderAliases = new HashMap<>();
+    private final Set<Long> announcedSenderIds = new HashSet<>();
+    private final Set<Long> writtenMessageIds = new HashSet<>();
+    private LocalDate currentDate;
+
+    public TgTranscriptWriter(StringBuilder target) {
+        this.target = target;
+    }
+
+    /**
+     * Дописывает сообщение в буфер
+     *
+     * @param message сообщение
+     * @return false, если сообщение не содержит текста и было пропущено
+     */
+    public boolean append(TgMessageDto message) {
+        if (message.getText() == null || message.getText().isBlank()) {
+            return false;
+        }
+
+        LocalDateTime dateTime = message.getDateTime();
+        if (dateTime != null && !dateTime.toLocalDate().equals(currentDate)) {
+            currentDate = dateTime.toLocalDate();
+            target.append('[').append(currentDate).append("]\n");
+        }
+
+        target.append('#').append(message.getMessageId());
+        if (dateTime != null) {
+            target.append(' ');
+            appendTwoDigits(dateTime.getHour());
+            target.append(':');
+            appendTwoDigits(dateTime.getMinute());
+        }
+
+        appendSender(message.getSenderId());
+        appendReply(message);
+
+        target.append(": ");
+        appendEscaped(message.getText(), Integer.MAX_VALUE);
+        if (message.getRepeatCount() != null && message.getRepeatCount() > 1) {
+            target.append(repeatCountSuffix(message.getRepeatCount()));
+        }
+        target.append('\n');
+
+        writtenMessageIds.add(message.getMessageId());
+
+        return true;
+    }
+
+    /**
+     * @return пометка количества повторов в конце строки сообщения
+     */
+    static String repeatCountSuffix(int repeatCount) {
+        return " [x" + repeatCount + "]";
+    }
+
+    /**
+     * Начать новый фрагмент: дата и идентификаторы отправителей будут выведены заново,
+     * ответы на сообщения из предыдущих фрагментов будут процитированы. Псевдонимы отправителей сохраняются.
+     */
+    public void startFragment() {
+        currentDate = null;
+        announcedSenderIds.clear();
+        writtenMessageIds.clear();
+    }
+
+    private void appendSender(Long senderId) {
+        target.append(" u");
+
+        if (senderId == null) {
+            target.append('?');
+
+            return;
+        }
+
+        Integer alias = senderAliases.computeIfAbsent(senderId, id -> senderAliases.size() + 1);
+        target.append(alias);
+
+        if (announcedSenderIds.add(senderId)) {
+            target.append('=').append(senderId);
+        }
+    }
+
+    private void appendReply(TgMessageDto message) {
+        if (message.getReplyToMessageId() == null) {
+            return;
+        }
+
+        target.append(" >#").append(message.getReplyToMessageId());
+
+        if (!writtenMessageIds.contains(message.getReplyToMessageId()) && message.getReplyToText() != null) {
+            target.append(" «");
+            appendEscaped(message.getReplyToText(), MAX_REPLY_QUOTE_LENGTH);
+            target.append('»');
+        }
+    }
+
+    private void appendEscaped(String text, int maxLength) {
+        int length = Math.min(text.length(), maxLength);
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+
+            if (c == '\n') {
+                target.append("\\n");
+            } else if (c != '\r') {
+                target.append(c);
+            }
+        }
+
+        if (length < text.length()) {
+            target.append('…');
+        }
+    }
+
+    private void appendTwoDigits(int value) {
+        if (value < 10) {
+            target.append('0');
+        }
+        target.append(value);
+    }
+}
@@ -0,0 +1,26 @@
+package ru.panyukovnn.springaiagentsandbox.transcript;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Фрагмент транскрипта, который целиком помещается в контекстное окно
+ */
+@Getter
+@RequiredArgsConstructor
+public class TranscriptChunk {
+
+    private final String text;
+    private final int tokenCount;
+    private final int messageCount;
+    /**
+     * Дата самого раннего сообщения фрагмента, null - если даты сообщений неизвестны
+     */
+    private final LocalDateTime firstMessageDateTime;
+    /**
+     * Дата самого позднего сообщения фрагмента, null - если даты сообщений неизвестны
+     */
+    private final LocalDateTime lastMessageDateTime;
+}
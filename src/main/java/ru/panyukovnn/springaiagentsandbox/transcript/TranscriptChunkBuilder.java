@@ -0,0 +1,176 @@
+package ru.panyukovnn.springaiagentsandbox.transcript;
+
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import ru.panyukovnn.springaiagentsandbox.dedup.NearDuplicateCollapser;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Собирает поток сообщений в фрагменты транскрипта не больше заданного количества токенов.
+ * Сообщение никогда не разрывается между фрагментами, готовый фрагмент сразу передаётся потребителю,
+ * поэтому в памяти держится только текущий фрагмент.
+ * <p>
+ * Если задана область поиска повторов, почти одинаковые сообщения текущего фрагмента схлопываются в первое из них,
+ * а количество повторов дописывается к его строке при передаче фрагмента потребителю.
+ */
+public class TranscriptChunkBuilder {
+
+    private final int maxChunkTokens;
+    private final ToIntFunction<String> lineTokenCounter;
+    private final NearDuplicateCollapser.FragmentScope duplicates;
+    private final Consumer<TranscriptChunk> chunkConsumer;
+    private final StringBuilder lineBuffer = new StringBuilder();
+    private final TgTranscriptWriter writer = new TgTranscriptWriter(lineBuffer);
+
+    private final List<String> chunkLines = new ArrayList<>();
+    /**
+     * Номер строки фрагмента по сообщению и количество повторов строк, у которых нашлись повторы
+     */
+    private final Map<TgMessageDto, Integer> chunkLineIndexes = new IdentityHashMap<>();
+    private final Map<Integer, Integer> chunkLineRepeatCounts = new HashMap<>();
+    private int chunkTokens;
+    private LocalDateTime chunkFirstMessageDateTime;
+    private LocalDateTime chunkLastMessageDateTime;
+
+    public TranscriptChunkBuilder(int maxChunkTokens, TokenCountEstimator tokenCountEstimator, Consumer<TranscriptChunk> chunkConsumer) {
+        this(maxChunkTokens, tokenCountEstimator, null, chunkConsumer);
+    }
+
+    /**
+     * @param duplicates область поиска повторов, очищается при переходе к следующему фрагменту
+     */
+    public TranscriptChunkBuilder(int maxChunkTokens,
+                                  TokenCountEstimator tokenCountEstimator,
+                                  NearDuplicateCollapser.FragmentScope duplicates,
+                                  Consumer<TranscriptChunk> chunkConsumer) {
+        this.maxChunkTokens = maxChunkTokens;
+        this.lineTokenCounter = tokenCountEstimator::estimate;
+        this.duplicates = duplicates;
+        this.chunkConsumer = chunkConsumer;
+    }
+
+    /**
+     * @param lineTokenCounter подсчёт токенов строки сообщения, например по заранее подсчитанным строкам
+     */
+    TranscriptChunkBuilder(int maxChunkTokens, ToIntFunction<String> lineTokenCounter, Consumer<TranscriptChunk> chunkConsumer) {
+        this.maxChunkTokens = maxChunkTokens;
+        this.lineTokenCounter = lineTokenCounter;
+        this.duplicates = null;
+        this.chunkConsumer = chunkConsumer;
+    }
+
+    public void add(TgMessageDto message) {
+        // повтор проверяется до вывода строки: вывод меняет состояние писателя (текущий день, известные отправители)
+        if (duplicates != null) {
+            TgMessageDto representative = duplicates.findOrRegister(message);
+            Integer representativeLine = representative == null ? null : chunkLineIndexes.get(representative);
+
+            if (representativeLine != null) {
+                addRepeat(representativeLine);
+                rememberMessageDateTime(message);
+
+                return;
+            }
+        }
+
+        lineBuffer.setLength(0);
+        if (!writer.append(message)) {
+            return;
+        }
+
+        int lineTokens = lineTokenCounter.applyAsInt(lineBuffer.toString());
+
+        if (!chunkLines.isEmpty() && chunkTokens + lineTokens > maxChunkTokens) {
+            flush();
+
+            if (duplicates != null) {
+                // сообщение было запомнено в области предыдущего фрагмента
+                duplicates.findOrRegister(message);
+            }
+
+            // во фрагменте заново выводятся дата и идентификаторы отправителей, поэтому строку нужно переписать
+            lineBuffer.setLength(0);
+            writer.append(message);
+            lineTokens = lineTokenCounter.applyAsInt(lineBuffer.toString());
+        }
+
+        chunkLineIndexes.put(message, chunkLines.size());
+        chunkLines.add(lineBuffer.toString());
+        chunkTokens += lineTokens;
+        rememberMessageDateTime(message);
+    }
+
+    /**
+     * Передаёт потребителю текущий незавершённый фрагмент
+     */
+    public void flush() {
+        if (chunkLines.isEmpty()) {
+            return;
+        }
+
+        StringBuilder chunkText = new StringBuilder();
+        for (int i = 0; i < chunkLines.size(); i++) {
+            String line = chunkLines.get(i);
+            Integer repeatCount = chunkLineRepeatCounts.get(i);
+
+            if (repeatCount == null) {
+                chunkText.append(line);
+            } else {
+                // строка заканчивается переводом строки, пометка повторов ставится перед ним
+                chunkText.append(line, 0, line.length() - 1)
+                    .append(TgTranscriptWriter.repeatCountSuffix(repeatCount))
+                    .append('\n');
+            }
+        }
+
+        chunkConsumer.accept(new TranscriptChunk(chunkText.toString(), chunkTokens, chunkLines.size(), chunkFirstMessageDateTime, chunkLastMessageDateTime));
+
+        chunkLines.clear();
+        chunkLineIndexes.clear();
+        chunkLineRepeatCounts.clear();
+        chunkTokens = 0;
+        chunkFirstMessageDateTime = null;
+        chunkLastMessageDateTime = null;
+        writer.startFragment();
+        if (duplicates != null) {
+            duplicates.startFragment();
+        }
+    }
+
+    /**
+     * Запоминает даты самого раннего и самого позднего сообщения фрагмента, включая схлопнутые повторы
+     */
+    private void rememberMessageDateTime(TgMessageDto message) {
+        LocalDateTime dateTime = message.getDateTime();
+        if (dateTime == null) {
+            return;
+        }
+
+        if (chunkFirstMessageDateTime == null || dateTime.isBefore(chunkFirstMessageDateTime)) {
+            chunkFirstMessageDateTime = dateTime;
+        }
+        if (chunkLastMessageDateTime == null || dateTime.isAfter(chunkLastMessageDateTime)) {
+            chunkLastMessageDateTime = dateTime;
+        }
+    }
+
+    /**
+     * Учитывает повтор строки фрагмента, размер фрагмента увеличивается на размер пометки повторов
+     */
+    private void addRepeat(int lineIndex) {
+        int repeatCount = chunkLineRepeatCounts.merge(lineIndex, 2, (current, ignored) -> current + 1);
+
+        chunkTokens += lineTokenCounter.applyAsInt(TgTranscriptWriter.repeatCountSuffix(repeatCount));
+        if (repeatCount > 2) {
+            chunkTokens -= lineTokenCounter.applyAsInt(TgTranscriptWriter.repeatCountSuffix(repeatCount - 1));
+        }
+    }
+}
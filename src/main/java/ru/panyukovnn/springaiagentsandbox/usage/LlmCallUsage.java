@@ -0,0 +1,26 @@
+package ru.panyukovnn.springaiagentsandbox.usage;
+
+/**
+ * Фактический расход токенов одного вызова LLM по данным провайдера. Null - провайдер не вернул значение
+ *
+ * @param promptTokens     токены промта
+ * @param completionTokens токены ответа
+ * @param cacheHitTokens   токены промта, взятые из кэша префиксов провайдера
+ * @param cacheMissTokens  токены промта, обработанные заново
+ */
+public record LlmCallUsage(Integer promptTokens,
+                           Integer completionTokens,
+                           Integer cacheHitTokens,
+                           Integer cacheMissTokens) {
+
+    public static final LlmCallUsage EMPTY = new LlmCallUsage(null, null, null, null);
+
+    /**
+     * @return суммарный расход токенов или null, если провайдер не вернул расход промта или ответа
+     */
+    public Integer totalTokens() {
+        return promptTokens == null || completionTokens == null
+            ? null
+            : promptTokens + completionTokens;
+    }
+}
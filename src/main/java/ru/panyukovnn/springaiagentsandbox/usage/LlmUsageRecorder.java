@@ -0,0 +1,141 @@
+package ru.panyukovnn.springaiagentsandbox.usage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Извлекает фактический расход токенов из ответа LLM и накапливает его по сценариям.
+ * DeepSeek возвращает попадания в кэш префиксов в полях prompt_cache_hit_tokens и prompt_cache_miss_tokens,
+ * OpenAI - в prompt_tokens_details.cached_tokens. Поля читаются из исходного объекта usage провайдера.
+ * Токены также учитываются в счётчике Micrometer {@value #LLM_TOKENS_COUNTER} с тегами scenario и type.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LlmUsageRecorder {
+
+    public static final String LLM_TOKENS_COUNTER = "llm.tokens";
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ScenarioUsage> scenarios = new ConcurrentHashMap<>();
+
+    /**
+     * Учитывает расход токенов вызова
+     *
+     * @param scenario     сценарий вызова
+     * @param chatResponse ответ LLM
+     * @return расход токенов вызова
+     */
+    public LlmCallUsage record(String scenario, ChatResponse chatResponse) {
+        LlmCallUsage usage = extract(chatResponse);
+
+        ScenarioUsage scenarioUsage = scenarios.computeIfAbsent(scenario, key -> new ScenarioUsage());
+        scenarioUsage.calls.increment();
+        addIfPresent(scenarioUsage.promptTokens, scenario, "prompt", usage.promptTokens());
+        addIfPresent(scenarioUsage.completionTokens, scenario, "completion", usage.completionTokens());
+        addIfPresent(scenarioUsage.cacheHitTokens, scenario, "cache_hit", usage.cacheHitTokens());
+        addIfPresent(scenarioUsage.cacheMissTokens, scenario, "cache_miss", usage.cacheMissTokens());
+
+        return usage;
+    }
+
+    /**
+     * @return накопленный расход токенов по сценариям, упорядоченный по названию сценария
+     */
+    public Map<String, ScenarioUsage> getScenarios() {
+        return new TreeMap<>(scenarios);
+    }
+
+    /**
+     * Извлекает расход токенов из ответа, не учитывая его в статистике
+     *
+     * @param chatResponse ответ LLM
+     * @return расход токенов вызова
+     */
+    public LlmCallUsage extract(ChatResponse chatResponse) {
+        if (chatResponse == null || chatResponse.getMetadata() == null || chatResponse.getMetadata().getUsage() == null) {
+            return LlmCallUsage.EMPTY;
+        }
+
+        Usage usage = chatResponse.getMetadata().getUsage();
+        Integer cacheHitTokens = null;
+        Integer cacheMissTokens = null;
+
+        if (usage.getNativeUsage() != null) {
+            try {
+                JsonNode nativeUsage = objectMapper.valueToTree(usage.getNativeUsage());
+
+                cacheHitTokens = intOrNull(nativeUsage.path("prompt_cache_hit_tokens"));
+                cacheMissTokens = intOrNull(nativeUsage.path("prompt_cache_miss_tokens"));
+
+                if (cacheHitTokens == null) {
+                    cacheHitTokens = intOrNull(nativeUsage.path("prompt_tokens_details").path("cached_tokens"));
+                }
+            } catch (IllegalArgumentException e) {
+                log.debug("Не удалось разобрать usage провайдера: {}", e.getMessage());
+            }
+        }
+
+        Integer promptTokens = usage.getPromptTokens();
+        if (cacheMissTokens == null && cacheHitTokens != null && promptTokens != null) {
+            cacheMissTokens = promptTokens - cacheHitTokens;
+        }
+
+        return new LlmCallUsage(promptTokens, usage.getCompletionTokens(), cacheHitTokens, cacheMissTokens);
+    }
+
+    private static Integer intOrNull(JsonNode node) {
+        return node.isNumber() ? node.intValue() : null;
+    }
+
+    private void addIfPresent(LongAdder adder, String scenario, String type, Integer value) {
+        if (value != null) {
+            adder.add(value);
+            meterRegistry.counter(LLM_TOKENS_COUNTER, "scenario", scenario, "type", type).increment(value);
+        }
+    }
+
+    /**
+     * Накопленный расход токенов одного сценария
+     */
+    public static class ScenarioUsage {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder cacheHitTokens = new LongAdder();
+        private final LongAdder cacheMissTokens = new LongAdder();
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getPromptTokens() {
+            return promptTokens.sum();
+        }
+
+        public long getCompletionTokens() {
+            return completionTokens.sum();
+        }
+
+        public long getCacheHitTokens() {
+            return cacheHitTokens.sum();
+        }
+
+        public long getCacheMissTokens() {
+            return cacheMissTokens.sum();
+        }
+    }
+}
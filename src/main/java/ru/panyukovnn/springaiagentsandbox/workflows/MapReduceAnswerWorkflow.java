@@ -3,19 +3,41 @@ package ru.panyukovnn.springaiagentsandbox.workflows;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.ChatOptions;
-import org.springframework.ai.document.Document;
 import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
 import org.springframework.ai.tokenizer.TokenCountEstimator;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.panyukovnn.springaiagentsandbox.concurrency.AdaptiveConcurrencyLimiter;
+import ru.panyukovnn.springaiagentsandbox.concurrency.AdaptiveConcurrencyLimiterRegistry;
+import ru.panyukovnn.springaiagentsandbox.dedup.NearDuplicateCollapser;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+import ru.panyukovnn.springaiagentsandbox.metrics.LlmMetricsAdvisor;
+import ru.panyukovnn.springaiagentsandbox.search.Bm25ChunkPreFilter;
+import ru.panyukovnn.springaiagentsandbox.transcript.MessageTokenSplitter;
+import ru.panyukovnn.springaiagentsandbox.transcript.TranscriptChunk;
+import ru.panyukovnn.springaiagentsandbox.transcript.TranscriptChunkBuilder;
+import ru.panyukovnn.springaiagentsandbox.usage.LlmCallUsage;
+import ru.panyukovnn.springaiagentsandbox.usage.LlmUsageRecorder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Данный workflow позволяет задать вопрос пользователя и применить его к большому массиву данных, для поиска ответа.
@@ -26,22 +48,45 @@ import java.util.concurrent.Executors;
 public class MapReduceAnswerWorkflow {
 
     private static final int RESPONSE_MAX_TOKENS = 2000;
+    private static final int CONTEXT_WINDOW_TOKENS = 190000;
     private static final double ZERO_TEMPERATURE = 0.0;
-    private static final Integer PARALLEL_THREADS_NUM = 5;
     private static final String NO_INFO_LLM_RESPONSE = "NO_INFO";
+    /**
+     * Промты начинаются с неизменной инструкции, затем идут данные и только в конце вопрос:
+     * провайдер кэширует общий префикс запросов, поэтому повторные вопросы к тем же фрагментам обходятся дешевле и быстрее
+     */
     private static final String MAP_PROMPT = """
-        Пользователь просит выполнить следующее действие с информацией ниже: "%s"
+        Ниже приведён фрагмент данных, после него - действие, которое пользователь просит выполнить с этой информацией.
         Если информация для ответа на вопрос не найдена, то напиши "%s".
         
         Вот фрагмент данных:
         ======================
         %s
         ======================
+        
+        Пользователь просит выполнить следующее действие с информацией выше: "%s"
         """;
-    private static final String SUMMARIZING_PROMPT = """
-        Пользователь задал вопрос: "%s".
+    private static final String FINAL_ANSWER_MARKER = "FINAL_ANSWER:";
+    /**
+     * Пометка полного ответа в начале ответа LLM: без учёта регистра, допускает markdown-выделение вокруг пометки (например, **FINAL_ANSWER:**)
+     */
+    private static final Pattern FINAL_ANSWER_PREFIX = Pattern.compile("(?i)^[*_#>`\\s]*FINAL[_ ]ANSWER[*_`\\s]*:[*_`\\s]*");
+    private static final String EARLY_EXIT_MAP_PROMPT = """
+        Ниже приведён фрагмент данных, после него - точечный вопрос пользователя.
+        Если информация для ответа на вопрос не найдена, то напиши "%s".
+        Если во фрагменте есть полный и однозначный ответ, которому не нужны другие фрагменты, начни ответ с "%s".
+        Если найдена только часть ответа, просто изложи её без этой пометки.
         
-        Ниже собраны фрагменты полезной информации, которые могут быть релевантны:
+        Вот фрагмент данных:
+        ======================
+        %s
+        ======================
+        
+        Вопрос пользователя: "%s"
+        """;
+    private static final String EARLY_EXIT_ORDER_SCORE = "score";
+    private static final String SUMMARIZING_PROMPT = """
+        Ниже собраны фрагменты полезной информации, которые могут быть релевантны вопросу пользователя:
         ======================
         %s
         ======================
@@ -50,27 +95,188 @@ public class MapReduceAnswerWorkflow {
         1. Дай максимально точный ответ.
         2. Если есть несколько версий, аккуратно разреши противоречия.
         3. Если ответа всё равно нет, честно скажи об этом.
+        
+        Пользователь задал вопрос: "%s".
         """;
 
     private final ChatClient chatClient;
+    private final AdaptiveConcurrencyLimiterRegistry adaptiveConcurrencyLimiterRegistry;
+    private final Bm25ChunkPreFilter bm25ChunkPreFilter;
+    private final NearDuplicateCollapser nearDuplicateCollapser;
+    private final LlmUsageRecorder llmUsageRecorder;
+    private final MessageTokenSplitter messageTokenSplitter;
     private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
     /**
-     * Разделяет документы на крупные части, которые могут поместиться за раз в контекст
+     * Размер промтов без фрагмента и вопроса: токены фрагмента уже подсчитаны при разбиении, промт целиком заново не оценивается
+     */
+    private final int mapPromptOverheadTokens = tokenCountEstimator.estimate(MAP_PROMPT.formatted(NO_INFO_LLM_RESPONSE, "", ""));
+    private final int earlyExitMapPromptOverheadTokens = tokenCountEstimator.estimate(
+        EARLY_EXIT_MAP_PROMPT.formatted(NO_INFO_LLM_RESPONSE, FINAL_ANSWER_MARKER, "", ""));
+
+    @Value("${spring.ai.openai.chat.options.model}")
+    private String chatModelName;
+    /**
+     * Порядок обработки фрагментов в режиме раннего завершения: newest - сначала новые, score - по оценке BM25
      */
-    private final TokenTextSplitter contextWindowSplitter = new TokenTextSplitter(190000, 100, 0, 50, true);
+    @Value("${spring-ai-agent-sandbox.map-reduce.early-exit.order}")
+    private String earlyExitOrder;
+    @Value("${spring-ai-agent-sandbox.map-reduce.early-exit.parallelism}")
+    private int earlyExitParallelism;
 
     /**
-     * Применяет алгоритм map-reduce к большому массиву текста, для поиска ответа на вопрос пользователя
+     * Применяет алгоритм map-reduce к потоку сообщений переписки.
+     * Сообщения собираются во фрагменты по мере чтения, вызов LLM для фрагмента стартует сразу после его заполнения,
+     * а в памяти одновременно держится ограниченное количество фрагментов.
+     * Если включена предварительная фильтрация, фрагменты сначала собираются целиком: для оценки BM25 нужна статистика по всем,
+     * в этом случае токены сообщений считаются параллельно.
+     * Почти одинаковые сообщения схлопываются с количеством повторов: при потоковом разбиении - в пределах фрагмента,
+     * при предварительной фильтрации - по всей переписке до разбиения.
      *
      * @param userQuestion вопрос пользователя
-     * @param rawData      данные, в которых необходимо найти ответ на вопрос пользователя
+     * @param messages     сообщения переписки в хронологическом порядке
      * @return объединенный результат пересказа контента
      */
-    public Optional<String> mapReduce(String userQuestion, String rawData) {
-        Document doc = new Document(rawData);
-        List<Document> chunks = contextWindowSplitter.apply(List.of(doc));
+    public Optional<String> mapReduce(String userQuestion, Stream<TgMessageDto> messages) {
+        if (bm25ChunkPreFilter.isApplicable(userQuestion)) {
+            List<TranscriptChunk> chunks = splitIntoChunks(messages);
+
+            return mapReduceChunks(userQuestion, bm25ChunkPreFilter.filter(userQuestion, chunks, TranscriptChunk::getText));
+        }
+
+        List<String> chunkSummaries = mapInParallel(
+            chunkConsumer -> splitIntoChunks(messages, chunkConsumer),
+            chunk -> summarizeSingleChunk(userQuestion, chunk));
+
+        return reduceRelevant(userQuestion, chunkSummaries);
+    }
+
+    /**
+     * Map-reduce для точечных вопросов: фрагменты обрабатываются по порядку (сначала новые или наиболее релевантные)
+     * не больше earlyExitParallelism одновременно. Как только LLM помечает ответ по фрагменту как полный,
+     * он возвращается сразу, а ожидающие и выполняющиеся вызовы по остальным фрагментам отменяются.
+     * Если полного ответа не нашлось, частичные ответы сворачиваются как обычно.
+     *
+     * @param userQuestion вопрос пользователя
+     * @param messages     сообщения переписки в хронологическом порядке
+     * @return ответ на вопрос
+     */
+    public Optional<String> mapReduceWithEarlyExit(String userQuestion, Stream<TgMessageDto> messages) {
+        List<TranscriptChunk> chunks = splitIntoChunks(messages);
+
+        List<Integer> chunkIndexes = IntStream.range(0, chunks.size()).boxed().toList();
+        List<Integer> orderedChunkIndexes = EARLY_EXIT_ORDER_SCORE.equals(earlyExitOrder)
+            ? bm25ChunkPreFilter.rankByScore(userQuestion, chunkIndexes, index -> chunks.get(index).getText())
+            : chunkIndexes.reversed();
+
+        AdaptiveConcurrencyLimiter limiter = adaptiveConcurrencyLimiterRegistry.forModel(chatModelName);
+        Semaphore runningChunks = new Semaphore(earlyExitParallelism);
+        CompletableFuture<String> finalAnswer = new CompletableFuture<>();
+        // частичные ответы хранятся по индексу фрагмента, чтобы свернуть их в хронологическом порядке
+        String[] chunkSummaries = new String[chunks.size()];
+        List<CompletableFuture<Void>> chunkCompletions = new ArrayList<>();
+        List<Future<?>> chunkTasks = new ArrayList<>();
+        ExecutorService virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+        try {
+            for (int chunkIndex : orderedChunkIndexes) {
+                runningChunks.acquireUninterruptibly();
+
+                if (finalAnswer.isDone()) {
+                    break;
+                }
+
+                TranscriptChunk chunk = chunks.get(chunkIndex);
+                CompletableFuture<Void> chunkCompletion = new CompletableFuture<>();
+                chunkCompletions.add(chunkCompletion);
+
+                chunkTasks.add(virtualThreadExecutor.submit(() -> {
+                    try {
+                        if (!finalAnswer.isDone()) {
+                            String summary = limiter.execute(() -> summarizeChunkWithEarlyExit(userQuestion, chunk));
+
+                            Matcher finalAnswerPrefix = FINAL_ANSWER_PREFIX.matcher(summary.strip());
+
+                            if (finalAnswerPrefix.lookingAt()) {
+                                finalAnswer.complete(summary.strip().substring(finalAnswerPrefix.end()).strip());
+                                // разблокировать цикл отправки, чтобы он увидел найденный ответ
+                                runningChunks.release(chunks.size());
+                            } else {
+                                chunkSummaries[chunkIndex] = summary;
+                            }
+                        }
+
+                        chunkCompletion.complete(null);
+                    } catch (Throwable e) {
+                        chunkCompletion.completeExceptionally(e);
+                    } finally {
+                        runningChunks.release();
+                    }
+                }));
+            }
+
+            CompletableFuture.anyOf(finalAnswer, CompletableFuture.allOf(chunkCompletions.toArray(CompletableFuture[]::new)))
+                .join();
+        } finally {
+            if (finalAnswer.isDone()) {
+                long cancelled = chunkTasks.stream()
+                    .filter(task -> task.cancel(true))
+                    .count();
+
+                log.info("Полный ответ найден, отменено вызовов по фрагментам: {}, не отправлено: {}",
+                    cancelled, chunks.size() - chunkTasks.size());
+            }
+
+            virtualThreadExecutor.shutdownNow();
+        }
+
+        if (finalAnswer.isDone()) {
+            return Optional.of(finalAnswer.join());
+        }
+
+        return reduceRelevant(userQuestion, Arrays.asList(chunkSummaries));
+    }
+
+    private String summarizeChunkWithEarlyExit(String userQuestion, TranscriptChunk chunk) {
+        String mapPrompt = EARLY_EXIT_MAP_PROMPT.formatted(NO_INFO_LLM_RESPONSE, FINAL_ANSWER_MARKER, chunk.getText(), userQuestion);
+        int estimatedPromptTokens = earlyExitMapPromptOverheadTokens + chunk.getTokenCount() + tokenCountEstimator.estimate(userQuestion);
+
+        String chunkSummary = callLlmWithTokenEstimation(mapPrompt, estimatedPromptTokens, "mapChunkEarlyExit");
+
+        return chunkSummary == null || NO_INFO_LLM_RESPONSE.equals(chunkSummary)
+            ? ""
+            : chunkSummary;
+    }
+
+    /**
+     * Собирает сообщения целиком и разбивает на фрагменты с параллельным подсчётом токенов
+     */
+    private List<TranscriptChunk> splitIntoChunks(Stream<TgMessageDto> messages) {
+        return messageTokenSplitter.split(nearDuplicateCollapser.collapse(messages.toList()), CONTEXT_WINDOW_TOKENS);
+    }
+
+    /**
+     * Потоковое разбиение: готовый фрагмент сразу передаётся потребителю, в памяти держится только текущий.
+     * Повторы схлопываются в пределах фрагмента, чтобы их количество попало в тот же фрагмент, что и первое сообщение группы
+     */
+    private void splitIntoChunks(Stream<TgMessageDto> messages, Consumer<TranscriptChunk> chunkConsumer) {
+        NearDuplicateCollapser.FragmentScope duplicates = nearDuplicateCollapser.openFragmentScope();
+        TranscriptChunkBuilder chunkBuilder = new TranscriptChunkBuilder(CONTEXT_WINDOW_TOKENS, tokenCountEstimator, duplicates, chunkConsumer);
+
+        messages.forEachOrdered(chunkBuilder::add);
+        chunkBuilder.flush();
+        duplicates.logCollapsed();
+    }
 
-        List<String> relevantChunksSummarization = mapQuestionToChunks(userQuestion, chunks);
+    private Optional<String> mapReduceChunks(String userQuestion, List<TranscriptChunk> chunks) {
+        List<String> chunkSummaries = runInParallel(chunks, chunk -> summarizeSingleChunk(userQuestion, chunk));
+
+        return reduceRelevant(userQuestion, chunkSummaries);
+    }
+
+    private Optional<String> reduceRelevant(String userQuestion, List<String> chunkSummaries) {
+        List<String> relevantChunksSummarization = chunkSummaries.stream()
+            .filter(summary -> !summary.isBlank())
+            .toList();
 
         if (relevantChunksSummarization.isEmpty()) {
             return Optional.empty();
@@ -80,64 +286,167 @@ public class MapReduceAnswerWorkflow {
             return Optional.of(relevantChunksSummarization.getFirst());
         }
 
-        if (relevantChunksSummarization.size() > 10) {
-            throw new IllegalStateException("Количество данных слишком велико для выполнения mapReduce");
+        String finalSummary = reduce(userQuestion, relevantChunksSummarization);
+
+        return Optional.ofNullable(finalSummary);
+    }
+
+    /**
+     * Иерархически сворачивает частичные ответы: группирует их так, чтобы каждая группа поместилась в контекстное окно,
+     * параллельно сворачивает группы и повторяет, пока не останется один ответ.
+     * Количество уровней растёт логарифмически от количества частичных ответов.
+     *
+     * @param userQuestion   вопрос пользователя
+     * @param partialAnswers частичные ответы, найденные в чанках
+     * @return итоговый ответ
+     */
+    private String reduce(String userQuestion, List<String> partialAnswers) {
+        List<String> currentAnswers = partialAnswers;
+        int level = 0;
+
+        while (currentAnswers.size() > 1) {
+            List<List<String>> groups = groupByTokenBudget(userQuestion, currentAnswers);
+
+            if (groups.size() == currentAnswers.size()) {
+                throw new IllegalStateException("Частичные ответы не помещаются в контекстное окно попарно, свёртка невозможна");
+            }
+
+            level++;
+            log.info("Уровень свёртки {}: частичных ответов {}, групп {}", level, currentAnswers.size(), groups.size());
+
+            String scenario = groups.size() == 1 ? "finalSummary" : "reduceGroup";
+            currentAnswers = runInParallel(groups, group -> reduceGroup(userQuestion, group, scenario));
         }
 
-        String joined = String.join("\n\n", relevantChunksSummarization);
+        return currentAnswers.getFirst();
+    }
 
-        String summarizingPrompt = SUMMARIZING_PROMPT.formatted(userQuestion, joined);
+    /**
+     * Жадно раскладывает частичные ответы по группам, суммарный размер каждой группы не превышает контекстное окно
+     */
+    private List<List<String>> groupByTokenBudget(String userQuestion, List<String> answers) {
+        int promptOverheadTokens = tokenCountEstimator.estimate(SUMMARIZING_PROMPT.formatted("", userQuestion));
+        int groupTokenBudget = CONTEXT_WINDOW_TOKENS - promptOverheadTokens - RESPONSE_MAX_TOKENS;
 
-        String finalSummary = callLlmWithTokenEstimation(summarizingPrompt, "finalSummary");
+        List<List<String>> groups = new ArrayList<>();
+        List<String> currentGroup = new ArrayList<>();
+        int currentGroupTokens = 0;
 
-        return Optional.ofNullable(finalSummary);
+        for (String answer : answers) {
+            int answerTokens = tokenCountEstimator.estimate(answer);
+
+            if (!currentGroup.isEmpty() && currentGroupTokens + answerTokens > groupTokenBudget) {
+                groups.add(currentGroup);
+                currentGroup = new ArrayList<>();
+                currentGroupTokens = 0;
+            }
+
+            currentGroup.add(answer);
+            currentGroupTokens += answerTokens;
+        }
+        groups.add(currentGroup);
+
+        return groups;
+    }
+
+    private String reduceGroup(String userQuestion, List<String> group, String scenario) {
+        if (group.size() == 1) {
+            return group.getFirst();
+        }
+
+        String joined = String.join("\n\n", group);
+
+        String summarizingPrompt = SUMMARIZING_PROMPT.formatted(joined, userQuestion);
+
+        return callLlmWithTokenEstimation(summarizingPrompt, tokenCountEstimator.estimate(summarizingPrompt), scenario);
+    }
+
+    private <T> List<String> runInParallel(List<T> items, Function<T, String> task) {
+        return mapInParallel(items::forEach, task);
     }
 
-    private List<String> mapQuestionToChunks(String userQuestion, List<Document> chunks) {
-        try (ExecutorService fixedExecutorService = Executors.newFixedThreadPool(PARALLEL_THREADS_NUM)) {
-            List<CompletableFuture<String>> chunkSummarizationFutures = new ArrayList<>();
+    /**
+     * Выполняет вызовы LLM на виртуальных потоках, количество одновременных вызовов регулирует адаптивный ограничитель модели.
+     * Пока задач в работе больше, чем максимальный лимит модели, производитель ждёт, так что элементы не копятся в памяти.
+     * Если одна из задач или сам производитель завершились ошибкой, новые вызовы не отправляются, а выполняющиеся прерываются:
+     * их результаты всё равно не будут использованы.
+     *
+     * @param producer передаёт элементы в потребителя по мере их готовности
+     * @param task     вызов LLM для одного элемента
+     * @return результаты в порядке поступления элементов
+     */
+    private <T> List<String> mapInParallel(Consumer<Consumer<T>> producer, Function<T, String> task) {
+        AdaptiveConcurrencyLimiter limiter = adaptiveConcurrencyLimiterRegistry.forModel(chatModelName);
+        Semaphore pendingTasks = new Semaphore(limiter.getMaxLimit() + 1);
+        AtomicReference<Throwable> taskFailure = new AtomicReference<>();
 
-            chunks.forEach(chunk -> {
-                String chunkText = chunk.getFormattedContent();
+        try (ExecutorService virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
 
-                CompletableFuture<String> chunkSummarizationFuture = CompletableFuture.supplyAsync(
-                    () -> summarizeSingleChunk(userQuestion, chunkText), fixedExecutorService);
+            try {
+                producer.accept(item -> {
+                    pendingTasks.acquireUninterruptibly();
 
-                chunkSummarizationFutures.add(chunkSummarizationFuture);
-            });
+                    if (taskFailure.get() != null) {
+                        throw new IllegalStateException("Вызов LLM завершился ошибкой, обработка остальных элементов остановлена", taskFailure.get());
+                    }
 
+                    futures.add(CompletableFuture
+                        .supplyAsync(() -> limiter.execute(() -> task.apply(item)), virtualThreadExecutor)
+                        .whenComplete((result, throwable) -> {
+                            if (throwable != null) {
+                                taskFailure.compareAndSet(null, throwable instanceof CompletionException ? throwable.getCause() : throwable);
+                            }
+                            pendingTasks.release();
+                        }));
+                });
+            } catch (RuntimeException e) {
+                virtualThreadExecutor.shutdownNow();
 
-            return chunkSummarizationFutures.stream()
+                throw e;
+            }
+
+            return futures.stream()
                 .map(CompletableFuture::join)
                 .toList();
         }
     }
 
-    private String summarizeSingleChunk(String userQuestion, String chunkText) {
-        String mapPrompt = MAP_PROMPT.formatted(userQuestion, NO_INFO_LLM_RESPONSE, chunkText);
+    private String summarizeSingleChunk(String userQuestion, TranscriptChunk chunk) {
+        String mapPrompt = MAP_PROMPT.formatted(NO_INFO_LLM_RESPONSE, chunk.getText(), userQuestion);
+        int estimatedPromptTokens = mapPromptOverheadTokens + chunk.getTokenCount() + tokenCountEstimator.estimate(userQuestion);
 
-        String chunkSummary = callLlmWithTokenEstimation(mapPrompt, "mapChunk");
+        String chunkSummary = callLlmWithTokenEstimation(mapPrompt, estimatedPromptTokens, "mapChunk");
 
-        return NO_INFO_LLM_RESPONSE.equals(chunkSummary)
+        return chunkSummary == null || NO_INFO_LLM_RESPONSE.equals(chunkSummary)
             ? ""
             : chunkSummary;
     }
 
-    private String callLlmWithTokenEstimation(String prompt, String scenario) {
-        int estimatedPromptTokens = tokenCountEstimator.estimate(prompt);
-
-        String chunkSummary = chatClient
+    private String callLlmWithTokenEstimation(String prompt, int estimatedPromptTokens, String scenario) {
+        ChatResponse chatResponse = chatClient
             .prompt(prompt)
+            .advisors(advisor -> advisor.param(LlmMetricsAdvisor.SCENARIO_PARAM, scenario))
             .options(ChatOptions.builder()
                 .temperature(ZERO_TEMPERATURE)
                 .maxTokens(RESPONSE_MAX_TOKENS)
                 .build())
             .call()
-            .content();
+            .chatResponse();
+
+        String chunkSummary = chatResponse == null || chatResponse.getResult() == null
+            ? null
+            : chatResponse.getResult().getOutput().getText();
 
         int estimatedResponseTokens = tokenCountEstimator.estimate(chunkSummary);
+        LlmCallUsage usage = llmUsageRecorder.extract(chatResponse);
 
-        log.info("Выполнен вызов LLM при {}, потрачено токенов: {}", scenario, estimatedPromptTokens + estimatedResponseTokens);
+        log.info("Выполнен вызов LLM при {}, потрачено токенов: {} (по оценке: {}), из кэша промта: {}, вне кэша: {}",
+            scenario,
+            usage.totalTokens() == null ? "н/д" : usage.totalTokens(),
+            estimatedPromptTokens + estimatedResponseTokens,
+            usage.cacheHitTokens() == null ? "н/д" : usage.cacheHitTokens(),
+            usage.cacheMissTokens() == null ? "н/д" : usage.cacheMissTokens());
 
         return chunkSummary;
     }
@@ -1,27 +1,45 @@
 package ru.panyukovnn.springaiagentsandbox.workflows;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.stereotype.Service;
+import ru.panyukovnn.springaiagentsandbox.dedup.NearDuplicateCollapser;
+import ru.panyukovnn.springaiagentsandbox.dto.TgMessageDto;
+import ru.panyukovnn.springaiagentsandbox.metrics.LlmMetricsAdvisor;
+import ru.panyukovnn.springaiagentsandbox.rag.ChatRagIndex;
+import ru.panyukovnn.springaiagentsandbox.rag.ChatRagIndexRepository;
+import ru.panyukovnn.springaiagentsandbox.transcript.MessageTokenSplitter;
+import ru.panyukovnn.springaiagentsandbox.transcript.TranscriptChunk;
 
+import java.time.LocalDate;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
 /**
  * Данный workflow позволяет задать вопрос пользователя и применить его к большому массиву данных, для поиска ответа.
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class RagAnswerWorkflow {
 
     private static final int TOP_K = 20;
+    /**
+     * Размер чанка для сохранения в векторном хранилище
+     */
+    private static final int RAG_CHUNK_TOKENS = 500;
+    /**
+     * Метаданные чанка: день самого позднего сообщения, в днях от эпохи
+     */
+    private static final String LAST_MESSAGE_DAY_METADATA = "lastMessageDay";
     private static final String SUMMARIZING_PROMPT = """
                 Вопрос пользователя: "%s"
                 
@@ -35,29 +53,34 @@ public class RagAnswerWorkflow {
                 """;
 
     private final ChatClient chatClient;
-    private final EmbeddingModel embeddingModel;
-    /**
-     * Разделяет документы на малые чанки, для сохранения в векторном хранилище
-     */
-    private final TokenTextSplitter ragSplitter = new TokenTextSplitter(500, 100, 0, 512, true);
+    private final MessageTokenSplitter messageTokenSplitter;
+    private final NearDuplicateCollapser nearDuplicateCollapser;
+    private final ChatRagIndexRepository chatRagIndexRepository;
 
     /**
-     * Применяет алгоритм map-reduce к большому массиву текста, для поиска ответа на вопрос пользователя
+     * Ищет ответ на вопрос пользователя в переписке чата с помощью RAG.
+     * Векторный индекс чата сохраняется между вызовами, эмбеддятся только ещё не проиндексированные сообщения.
+     * Индекс может содержать сообщения раньше dateFrom, проиндексированные предыдущими вызовами, поэтому поиск
+     * ограничен чанками, в которых есть сообщения не раньше dateFrom: чанк, начатый накануне dateFrom, в поиск попадает.
      *
+     * @param chatId       идентификатор чата
+     * @param topicId      идентификатор топика
+     * @param dateFrom     дата, начиная с которой переписка учитывается в ответе
      * @param userQuestion вопрос пользователя
-     * @param rawData      данные, в которых необходимо найти ответ на вопрос пользователя
-     * @return объединенный результат пересказа контента
+     * @param messages     сообщения, в которых необходимо найти ответ на вопрос пользователя
+     * @return ответ на вопрос пользователя
      */
-    public Optional<String> answerWithRag(String userQuestion, String rawData) {
-        Document doc = new Document(rawData);
-        List<Document> chunks = ragSplitter.apply(List.of(doc));
+    public Optional<String> answerWithRag(Long chatId, Long topicId, LocalDate dateFrom, String userQuestion, List<TgMessageDto> messages) {
+        ChatRagIndex index = chatRagIndexRepository.getOrCreate(chatId, topicId);
 
-        VectorStore vectorStore = createVectorStore();
-        vectorStore.add(chunks);
+        VectorStore vectorStore = indexNewMessages(index, messages);
 
         SearchRequest searchRequest = SearchRequest.builder()
             .query(userQuestion)
             .topK(TOP_K)
+            .filterExpression(new FilterExpressionBuilder()
+                .gte(LAST_MESSAGE_DAY_METADATA, dateFrom.toEpochDay())
+                .build())
             .build();
 
         List<Document> chunksFromRag = vectorStore.similaritySearch(searchRequest);
@@ -68,16 +91,43 @@ public class RagAnswerWorkflow {
 
         String foundedAnswer = chatClient
             .prompt(SUMMARIZING_PROMPT.formatted(userQuestion, context))
+            .advisors(advisor -> advisor.param(LlmMetricsAdvisor.SCENARIO_PARAM, "ragAnswer"))
             .call()
             .content();
 
         return Optional.ofNullable(foundedAnswer);
     }
 
-    /**
-     * @return in-memory векторное хранилище.
-     */
-    private VectorStore createVectorStore() {
-        return SimpleVectorStore.builder(embeddingModel).build();
+    private VectorStore indexNewMessages(ChatRagIndex index, List<TgMessageDto> messages) {
+        synchronized (index) {
+            List<TgMessageDto> notIndexedMessages = index.selectNotIndexed(messages);
+
+            if (notIndexedMessages.isEmpty()) {
+                log.info("Все сообщения уже проиндексированы: {}", index.getKey());
+
+                return index.getVectorStore();
+            }
+
+            List<Document> chunks = messageTokenSplitter.split(nearDuplicateCollapser.collapse(notIndexedMessages), RAG_CHUNK_TOKENS).stream()
+                .map(RagAnswerWorkflow::toDocument)
+                .toList();
+
+            index.getVectorStore().add(chunks);
+            index.markIndexed(notIndexedMessages);
+            chatRagIndexRepository.save(index);
+
+            log.info("Проиндексировано новых сообщений: {}, чанков: {}. Индекс: {}", notIndexedMessages.size(), chunks.size(), index.getKey());
+
+            return index.getVectorStore();
+        }
+    }
+
+    private static Document toDocument(TranscriptChunk chunk) {
+        Map<String, Object> metadata = new HashMap<>();
+        if (chunk.getLastMessageDateTime() != null) {
+            metadata.put(LAST_MESSAGE_DAY_METADATA, chunk.getLastMessageDateTime().toLocalDate().toEpochDay());
+        }
+
+        return new Document(chunk.getText(), metadata);
     }
 }
@@ -0,0 +1,235 @@
+package ru.panyukovnn.springaiagentsandbox.client.tavily;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Кэширование и объединение результатов поиска Tavily на локальной заглушке API
+ */
+class TavilySearchClientTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, AtomicInteger> requestsByQuery = new ConcurrentHashMap<>();
+    private final Map<String, String> responsesByQuery = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> failuresLeftByQuery = new ConcurrentHashMap<>();
+
+    private HttpServer stubTavily;
+    private ExecutorService stubExecutor;
+    private volatile CountDownLatch responseGate;
+    private volatile CountDownLatch requestReceived;
+    private TavilySearchClient tavilySearchClient;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stubExecutor = Executors.newCachedThreadPool();
+        stubTavily = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stubTavily.setExecutor(stubExecutor);
+        stubTavily.createContext("/search", this::handleSearch);
+        stubTavily.start();
+
+        RestClient restClient = RestClient.builder()
+            .baseUrl("http://127.0.0.1:%d".formatted(stubTavily.getAddress().getPort()))
+            .build();
+
+        tavilySearchClient = new TavilySearchClient(restClient, objectMapper);
+        ReflectionTestUtils.setField(tavilySearchClient, "tavilyApiKey", "test-key");
+        ReflectionTestUtils.setField(tavilySearchClient, "maxResults", 5);
+        ReflectionTestUtils.setField(tavilySearchClient, "cacheTtl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(tavilySearchClient, "cacheMaxEntries", 100);
+        ReflectionTestUtils.setField(tavilySearchClient, "fanOutParallelism", 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stubTavily.stop(0);
+        stubExecutor.shutdownNow();
+    }
+
+    @Test
+    void repeatedQueryIsServedFromCache() {
+        respond("spring ai", result("https://spring.io/ai", 0.9));
+
+        String first = tavilySearchClient.search("spring ai");
+        String second = tavilySearchClient.search("  Spring   AI ");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(requests("spring ai")).isEqualTo(1);
+        assertThat(tavilySearchClient.getMisses()).isEqualTo(1);
+        assertThat(tavilySearchClient.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void expiredEntryIsRequestedAgain() throws InterruptedException {
+        ReflectionTestUtils.setField(tavilySearchClient, "cacheTtl", Duration.ofMillis(50));
+        respond("spring ai", result("https://spring.io/ai", 0.9));
+
+        tavilySearchClient.search("spring ai");
+        Thread.sleep(100);
+        tavilySearchClient.search("spring ai");
+
+        assertThat(requests("spring ai")).isEqualTo(2);
+        assertThat(tavilySearchClient.getMisses()).isEqualTo(2);
+        assertThat(tavilySearchClient.getHits()).isZero();
+    }
+
+    @Test
+    void concurrentIdenticalQueriesAreCoalesced() throws Exception {
+        respond("spring ai", result("https://spring.io/ai", 0.9));
+        responseGate = new CountDownLatch(1);
+        requestReceived = new CountDownLatch(1);
+
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> first = callers.submit(() -> tavilySearchClient.search("spring ai"));
+            assertThat(requestReceived.await(5, TimeUnit.SECONDS)).isTrue();
+
+            Future<String> second = callers.submit(() -> tavilySearchClient.search("spring ai"));
+            waitUntil(() -> tavilySearchClient.getHits() == 1);
+            responseGate.countDown();
+
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(first.get(5, TimeUnit.SECONDS));
+        }
+
+        assertThat(requests("spring ai")).isEqualTo(1);
+    }
+
+    @Test
+    void failedSearchIsNotCached() {
+        respond("flaky", result("https://flaky.example/1", 0.5));
+        failuresLeftByQuery.put("flaky", new AtomicInteger(1));
+
+        assertThatThrownBy(() -> tavilySearchClient.search("flaky"))
+            .isInstanceOf(HttpServerErrorException.class);
+
+        String retried = tavilySearchClient.search("flaky");
+
+        assertThat(retried).contains("https://flaky.example/1");
+        assertThat(requests("flaky")).isEqualTo(2);
+    }
+
+    @Test
+    void searchAllMergesResultsByUrlKeepingBestScore() throws IOException {
+        respond("first", result("https://Example.com/page/", 0.4, "first title"), result("https://other.example/1", 0.9, "other"));
+        respond("second", result("https://example.com/page#section", 0.7, "second title"));
+
+        JsonNode merged = objectMapper.readTree(tavilySearchClient.searchAll(List.of("first", "second", "First ")));
+
+        assertThat(requests("first")).isEqualTo(1);
+        assertThat(merged.path("failedQueries").isMissingNode()).isTrue();
+
+        JsonNode results = merged.path("results");
+        assertThat(results).hasSize(2);
+
+        assertThat(results.get(0).path("url").asText()).isEqualTo("https://other.example/1");
+        assertThat(results.get(0).path("queries")).extracting(JsonNode::asText).containsExactly("first");
+
+        assertThat(results.get(1).path("score").asDouble()).isEqualTo(0.7);
+        assertThat(results.get(1).path("title").asText()).isEqualTo("second title");
+        assertThat(results.get(1).path("queries")).extracting(JsonNode::asText).containsExactly("first", "second");
+    }
+
+    @Test
+    void searchAllReportsFailedQueries() throws IOException {
+        respond("working", result("https://working.example/1", 0.8));
+        failuresLeftByQuery.put("broken", new AtomicInteger(Integer.MAX_VALUE));
+
+        JsonNode merged = objectMapper.readTree(tavilySearchClient.searchAll(List.of("working", "broken")));
+
+        assertThat(merged.path("failedQueries")).extracting(JsonNode::asText).containsExactly("broken");
+        assertThat(merged.path("results")).hasSize(1);
+    }
+
+    @Test
+    void searchAllFailsWhenEveryQueryFails() {
+        failuresLeftByQuery.put("broken", new AtomicInteger(Integer.MAX_VALUE));
+        failuresLeftByQuery.put("also broken", new AtomicInteger(Integer.MAX_VALUE));
+
+        assertThatThrownBy(() -> tavilySearchClient.searchAll(List.of("broken", "also broken")))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("broken");
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        String query = objectMapper.readTree(exchange.getRequestBody()).path("query").asText();
+        requestsByQuery.computeIfAbsent(query, key -> new AtomicInteger()).incrementAndGet();
+
+        if (requestReceived != null) {
+            requestReceived.countDown();
+        }
+        if (responseGate != null) {
+            try {
+                responseGate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        AtomicInteger failuresLeft = failuresLeftByQuery.get(query);
+        boolean fail = failuresLeft != null && failuresLeft.getAndDecrement() > 0;
+
+        byte[] body = (fail ? "{\"error\":\"stub failure\"}" : responsesByQuery.getOrDefault(query, "{\"results\":[]}"))
+            .getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(fail ? 500 : 200, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void respond(String query, String... results) {
+        responsesByQuery.put(query, "{\"query\":\"%s\",\"results\":[%s]}".formatted(query, String.join(",", results)));
+    }
+
+    private static String result(String url, double score) {
+        return result(url, score, url);
+    }
+
+    private static String result(String url, double score, String title) {
+        return "{\"url\":\"%s\",\"title\":\"%s\",\"score\":%s}".formatted(url, title, score);
+    }
+
+    private int requests(String query) {
+        AtomicInteger requests = requestsByQuery.get(query);
+
+        return requests == null ? 0 : requests.get();
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Условие не выполнилось за 5 секунд");
+            }
+            Thread.sleep(10);
+        }
+    }
+}